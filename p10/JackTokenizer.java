@@ -43,24 +43,34 @@ public class JackTokenizer {
     private int pointer;
     private ArrayList<String> tokens;
     private static Pattern tokenPatterns;
-    private static String keyWordReg;
     private static String symbolReg;
     private static String intReg;
     private static String strReg;
     private static String idReg;
 
-    private static HashMap<String,Integer> keyMap = new HashMap<String, Integer>();
+    private static String[] keyWords = {"class","method","function","constructor","int","boolean","char","void","var","static","field",
+            "let","do","if","else","while","return","true","false","null","this"};
+    private static String[] keyWordTable = new String[64];
+    private static int[] keyWordCodes = new int[64];
     private static HashSet<Character> opSet = new HashSet<Character>();
 
     static {
 
-        keyMap.put("class",CLASS);keyMap.put("constructor",CONSTRUCTOR);keyMap.put("function",FUNCTION);
-        keyMap.put("method",METHOD);keyMap.put("field",FIELD);keyMap.put("static",STATIC);
-        keyMap.put("var",VAR);keyMap.put("int",INT);keyMap.put("char",CHAR);
-        keyMap.put("boolean",BOOLEAN);keyMap.put("void",VOID);keyMap.put("true",TRUE);
-        keyMap.put("false",FALSE);keyMap.put("null",NULL);keyMap.put("this",THIS);
-        keyMap.put("let",LET);keyMap.put("do",DO);keyMap.put("if",IF);
-        keyMap.put("else",ELSE);keyMap.put("while",WHILE);keyMap.put("return",RETURN);
+        for (int i = 0; i < keyWords.length; i++){
+            String word = keyWords[i];
+            int slot = keyWordHash(word.charAt(0), word.charAt(word.length() - 1), word.length());
+            if (keyWordTable[slot] != null){
+                throw new IllegalStateException("Keyword hash collision:" + word);
+            }
+            keyWordTable[slot] = word;
+            keyWordCodes[slot] = CLASS + i;
+        }
+
+        symbolReg = "[\\&\\*\\+\\(\\)\\.\\/\\,\\-\\]\\;\\~\\}\\|\\{\\>\\=\\[\\<]";
+        intReg = "[0-9]+";
+        strReg = "\"[^\"\n]*\"";
+        idReg = "[\\w_]+";
+        tokenPatterns = Pattern.compile(symbolReg + "|" + intReg + "|" + strReg + "|" + idReg);
 
         opSet.add('+');opSet.add('-');opSet.add('*');opSet.add('/');opSet.add('&');opSet.add('|');
         opSet.add('<');opSet.add('>');opSet.add('=');
@@ -78,7 +88,6 @@ public class JackTokenizer {
                 }
             }
             preprocessed = noBlockComments(preprocessed).trim();
-            initRegs();
             Matcher m = tokenPatterns.matcher(preprocessed);
             tokens = new ArrayList<String>();
             pointer = 0;
@@ -96,16 +105,16 @@ public class JackTokenizer {
 
     }
 
-    private void initRegs(){
-        keyWordReg = "";
-        for (String seg: keyMap.keySet()){
-            keyWordReg += seg + "|";
+    private static int keyWordHash(int first, int last, int length){
+        return (first + last * 19 + length) & 63;
+    }
+
+    private static int keyWordOf(String token){
+        int slot = keyWordHash(token.charAt(0), token.charAt(token.length() - 1), token.length());
+        if (token.equals(keyWordTable[slot])){
+            return keyWordCodes[slot];
         }
-        symbolReg = "[\\&\\*\\+\\(\\)\\.\\/\\,\\-\\]\\;\\~\\}\\|\\{\\>\\=\\[\\<]";
-        intReg = "[0-9]+";
-        strReg = "\"[^\"\n]*\"";
-        idReg = "[\\w_]+";
-        tokenPatterns = Pattern.compile(keyWordReg + symbolReg + "|" + intReg + "|" + strReg + "|" + idReg);
+        return -1;
     }
 
     public boolean hasMoreTokens() {
@@ -120,7 +129,7 @@ public class JackTokenizer {
             throw new IllegalStateException("Out of Tokens");
         }
 
-        if (curToken.matches(keyWordReg)){
+        if (keyWordOf(curToken) != -1){
             curTokenType = KEYWORD;
         }
         else if (curToken.matches(symbolReg)){
@@ -150,7 +159,7 @@ public class JackTokenizer {
 
     public int keyWord(){
         if (curTokenType == KEYWORD){
-            return keyMap.get(curToken);
+            return keyWordOf(curToken);
         }
         else {
             throw new IllegalStateException("Not keyword");
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+public class Ast {
+
+    public static final int NONE = -1;
+
+    public static final int CLASS = 0;
+    public static final int SUBROUTINE = 1;
+    public static final int LET = 2;
+    public static final int IF = 3;
+    public static final int WHILE = 4;
+    public static final int DO = 5;
+    public static final int RETURN = 6;
+    public static final int INT = 7;
+    public static final int STRING = 8;
+    public static final int KEYWORD = 9;
+    public static final int VAR = 10;
+    public static final int INDEX = 11;
+    public static final int CALL = 12;
+    public static final int UNARY = 13;
+    public static final int BINARY = 14;
+
+    private int[] kinds;
+    private int[] ops;
+    private int[] values;
+    private int[] firsts;
+    private int[] seconds;
+    private int[] thirds;
+    private int[] nexts;
+    private int size;
+
+    private String[] strings;
+    private int stringCount;
+
+    public Ast() {
+        this(256);
+    }
+
+    public Ast(int capacity) {
+        kinds = new int[capacity];
+        ops = new int[capacity];
+        values = new int[capacity];
+        firsts = new int[capacity];
+        seconds = new int[capacity];
+        thirds = new int[capacity];
+        nexts = new int[capacity];
+        strings = new String[16];
+        size = 0;
+        stringCount = 0;
+    }
+
+    public void clear(){
+        Arrays.fill(strings, 0, stringCount, null);
+        size = 0;
+        stringCount = 0;
+    }
+
+    public int add(int kind, int op, int value, int first, int second, int third){
+
+        if (size == kinds.length){
+            int capacity = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            ops = Arrays.copyOf(ops, capacity);
+            values = Arrays.copyOf(values, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            seconds = Arrays.copyOf(seconds, capacity);
+            thirds = Arrays.copyOf(thirds, capacity);
+            nexts = Arrays.copyOf(nexts, capacity);
+        }
+
+        kinds[size] = kind;
+        ops[size] = op;
+        values[size] = value;
+        firsts[size] = first;
+        seconds[size] = second;
+        thirds[size] = third;
+        nexts[size] = NONE;
+        return size++;
+    }
+
+    public int add(int kind, int op, int value){
+        return add(kind, op, value, NONE, NONE, NONE);
+    }
+
+    public int addString(String str){
+
+        if (stringCount == strings.length){
+            strings = Arrays.copyOf(strings, stringCount * 2);
+        }
+
+        strings[stringCount] = str;
+        return stringCount++;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int kind(int node){
+        return kinds[node];
+    }
+
+    public int op(int node){
+        return ops[node];
+    }
+
+    public int value(int node){
+        return values[node];
+    }
+
+    public String string(int node){
+        return strings[values[node]];
+    }
+
+    public int first(int node){
+        return firsts[node];
+    }
+
+    public int second(int node){
+        return seconds[node];
+    }
+
+    public int third(int node){
+        return thirds[node];
+    }
+
+    public int next(int node){
+        return nexts[node];
+    }
+
+    public void setFirst(int node, int first){
+        firsts[node] = first;
+    }
+
+    public void setNext(int node, int next){
+        nexts[node] = next;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ClassOutline {
+
+    private String name;
+    private LinkedHashMap<String,Symbol> variables;
+    private LinkedHashMap<String,Signature> subroutines;
+
+    public ClassOutline(String name) {
+        this.name = name;
+        variables = new LinkedHashMap<String, Symbol>();
+        subroutines = new LinkedHashMap<String, Signature>();
+    }
+
+    public void addVariable(String name, Symbol symbol){
+        variables.put(name, symbol);
+    }
+
+    public void addSubroutine(Signature signature){
+
+        if (subroutines.containsKey(signature.getName())){
+            throw new IllegalStateException("Duplicate subroutine:" + this.name + "." + signature.getName());
+        }
+        subroutines.put(signature.getName(), signature);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String,Symbol> getVariables() {
+        return variables;
+    }
+
+    public Collection<Signature> getSubroutines() {
+        return subroutines.values();
+    }
+
+    public Signature getSubroutine(String name) {
+        return subroutines.get(name);
+    }
+
+    public int varCount(Symbol.KIND kind){
+
+        int count = 0;
+
+        for (Symbol symbol: variables.values()){
+            if (symbol.getKind() == kind) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("class ").append(name).append('\n');
+
+        for (Map.Entry<String,Symbol> variable: variables.entrySet()){
+            Symbol symbol = variable.getValue();
+            sb.append("    ").append(symbol.getKind().name().toLowerCase()).append(' ').append(symbol.getType()).append(' ').append(variable.getKey()).append('\n');
+        }
+
+        for (Signature signature: subroutines.values()){
+            sb.append("    ").append(signature).append('\n');
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,521 @@
+import java.util.Arrays;
+
+public class CodeGenerator {
+
+    private static VMWriter.SEGMENT[] segments = VMWriter.SEGMENT.values();
+    private static JackTokenizer.KEYWORD[] keyWords = JackTokenizer.KEYWORD.values();
+
+    private static final int MULTIPLY_BUDGET = 24;
+
+    private Ast ast;
+    private VMWriter vmWriter;
+    private int fieldCount;
+    private int optimizationLevel;
+    private int labelIndex;
+
+    private int[] stack = new int[16];
+    private int stackTop;
+
+    public CodeGenerator(Ast ast, VMWriter vmWriter, int optimizationLevel) {
+        this.ast = ast;
+        this.vmWriter = vmWriter;
+        this.optimizationLevel = optimizationLevel;
+        labelIndex = 0;
+    }
+
+    public void setFieldCount(int fieldCount){
+        this.fieldCount = fieldCount;
+    }
+
+    public void writeClass(int root){
+
+        fieldCount = ast.second(root);
+
+        for (int subroutine = ast.first(root); subroutine != Ast.NONE; subroutine = ast.next(subroutine)){
+            writeSubroutine(subroutine);
+        }
+    }
+
+    public void writeSubroutine(int subroutine){
+
+        JackTokenizer.KEYWORD keyword = keyWords[ast.op(subroutine)];
+        labelIndex = 0;
+
+        vmWriter.writeFunction(ast.string(subroutine), ast.second(subroutine));
+
+        if (keyword == JackTokenizer.KEYWORD.METHOD){
+            vmWriter.writePush(VMWriter.SEGMENT.ARG, 0);
+            vmWriter.writePop(VMWriter.SEGMENT.POINTER,0);
+
+        }
+        else if (keyword == JackTokenizer.KEYWORD.CONSTRUCTOR){
+            vmWriter.writePush(VMWriter.SEGMENT.CONST,fieldCount);
+            vmWriter.writeCall("Memory.alloc", 1);
+            vmWriter.writePop(VMWriter.SEGMENT.POINTER,0);
+        }
+
+        writeStatements(ast.first(subroutine));
+    }
+
+    private void writeStatements(int statement){
+
+        for (; statement != Ast.NONE; statement = ast.next(statement)){
+
+            switch (ast.kind(statement)){
+                case Ast.LET:writeLet(statement);break;
+                case Ast.IF:writeIf(statement);break;
+                case Ast.WHILE:writeWhile(statement);break;
+                case Ast.DO:writeDo(statement);break;
+                case Ast.RETURN:writeReturn(statement);break;
+                default:throw new IllegalStateException("Unknown statement node:" + ast.kind(statement));
+            }
+        }
+    }
+
+    private void writeLet(int statement){
+
+        int target = ast.first(statement);
+
+        if (ast.kind(target) == Ast.INDEX){
+            int array = ast.first(target);
+            writeExpression(array);
+            writeExpression(ast.next(array));
+            vmWriter.writeArithmetic(VMWriter.COMMAND.ADD);
+            writeExpression(ast.second(statement));
+            vmWriter.writePop(VMWriter.SEGMENT.TEMP,0);
+            vmWriter.writePop(VMWriter.SEGMENT.POINTER,1);
+            vmWriter.writePush(VMWriter.SEGMENT.TEMP,0);
+            vmWriter.writePop(VMWriter.SEGMENT.THAT,0);
+        }
+        else {
+            writeExpression(ast.second(statement));
+            vmWriter.writePop(segments[ast.op(target)], ast.value(target));
+        }
+    }
+
+    private void writeIf(int statement){
+
+        int condition = ast.first(statement);
+        boolean lowered = optimizationLevel >= 1 && isBoolean(condition);
+
+        if (lowered && ast.kind(condition) != Ast.UNARY && ast.third(statement) != Ast.NONE){
+            int thenLabel = newLabel();
+            int endLabel = newLabel();
+
+            writeExpression(condition);
+            vmWriter.writeIf(thenLabel);
+            writeStatements(ast.third(statement));
+            vmWriter.writeGoto(endLabel);
+            vmWriter.writeLabel(thenLabel);
+            writeStatements(ast.second(statement));
+            vmWriter.writeLabel(endLabel);
+            return;
+        }
+
+        int elseLabel = newLabel();
+        int endLabel = newLabel();
+
+        if (lowered && ast.kind(condition) == Ast.UNARY){
+            writeExpression(ast.first(condition));
+        }
+        else if (lowered && isInvertible(condition)){
+            int left = ast.first(condition);
+            int bound = ast.value(ast.next(left));
+            writeExpression(left);
+
+            if (ast.op(condition) == '>'){
+                writeConstant(bound + 1);
+                vmWriter.writeArithmetic(VMWriter.COMMAND.LT);
+            }else {
+                writeConstant(bound - 1);
+                vmWriter.writeArithmetic(VMWriter.COMMAND.GT);
+            }
+        }
+        else {
+            writeExpression(condition);
+            vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
+        }
+
+        vmWriter.writeIf(elseLabel);
+        writeStatements(ast.second(statement));
+        vmWriter.writeGoto(endLabel);
+        vmWriter.writeLabel(elseLabel);
+        writeStatements(ast.third(statement));
+        vmWriter.writeLabel(endLabel);
+    }
+
+    private void writeWhile(int statement){
+
+        int continueLabel = newLabel();
+        int topLabel = newLabel();
+
+        if (optimizationLevel >= 1 && isBoolean(ast.first(statement))){
+            vmWriter.writeGoto(continueLabel);
+            vmWriter.writeLabel(topLabel);
+            writeStatements(ast.second(statement));
+            vmWriter.writeLabel(continueLabel);
+            writeExpression(ast.first(statement));
+            vmWriter.writeIf(topLabel);
+            return;
+        }
+
+        vmWriter.writeLabel(topLabel);
+        writeExpression(ast.first(statement));
+        vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
+        vmWriter.writeIf(continueLabel);
+        writeStatements(ast.second(statement));
+        vmWriter.writeGoto(topLabel);
+        vmWriter.writeLabel(continueLabel);
+    }
+
+    private void writeDo(int statement){
+        writeExpression(ast.first(statement));
+        vmWriter.writePop(VMWriter.SEGMENT.TEMP,0);
+    }
+
+    private void writeReturn(int statement){
+
+        if (ast.first(statement) == Ast.NONE){
+            vmWriter.writePush(VMWriter.SEGMENT.CONST,0);
+        }else {
+            writeExpression(ast.first(statement));
+        }
+
+        vmWriter.writeReturn();
+    }
+
+    private boolean isBoolean(int node){
+
+        int base = stackTop;
+        boolean result = true;
+        push(node);
+
+        while (result && stackTop > base){
+
+            node = stack[--stackTop];
+
+            switch (ast.kind(node)){
+                case Ast.BINARY:
+                    int op = ast.op(node);
+                    if (op == '&' || op == '|'){
+                        push(ast.next(ast.first(node)));
+                        push(ast.first(node));
+                    }else {
+                        result = op == '<' || op == '>' || op == '=';
+                    }
+                    break;
+                case Ast.UNARY:
+                    if (ast.op(node) == '~'){
+                        push(ast.first(node));
+                    }else {
+                        result = false;
+                    }
+                    break;
+                case Ast.KEYWORD:
+                    result = ast.op(node) == JackTokenizer.KEYWORD.TRUE.ordinal() || ast.op(node) == JackTokenizer.KEYWORD.FALSE.ordinal();
+                    break;
+                case Ast.INT:
+                    result = ast.value(node) == 0 || ast.value(node) == -1;
+                    break;
+                default:
+                    result = false;
+            }
+        }
+
+        stackTop = base;
+        return result;
+    }
+
+    private boolean isInvertible(int node){
+
+        if (ast.kind(node) != Ast.BINARY || (ast.op(node) != '<' && ast.op(node) != '>')){
+            return false;
+        }
+
+        int right = ast.next(ast.first(node));
+
+        if (ast.kind(right) != Ast.INT){
+            return false;
+        }
+        return ast.op(node) == '>' ? ast.value(right) < Short.MAX_VALUE : ast.value(right) > Short.MIN_VALUE;
+    }
+
+    private int newLabel(){
+        return labelIndex++;
+    }
+
+    public void writeExpression(int root){
+
+        int base = stackTop;
+        int node = root;
+
+        while (true){
+
+            for (int operand = firstOperand(node); operand != Ast.NONE; operand = firstOperand(node)){
+                push(node);
+                node = operand;
+            }
+
+            writeNode(node);
+
+            while (true){
+
+                if (stackTop == base){
+                    return;
+                }
+
+                if (ast.next(node) != Ast.NONE && !isReduced(stack[stackTop - 1])){
+                    node = ast.next(node);
+                    break;
+                }
+
+                node = stack[--stackTop];
+                writeNode(node);
+            }
+        }
+    }
+
+    private int firstOperand(int node){
+        int kind = ast.kind(node);
+
+        if (kind != Ast.INDEX && kind != Ast.CALL && kind != Ast.UNARY && kind != Ast.BINARY){
+            return Ast.NONE;
+        }
+        if (isReduced(node)){
+            int operand = reducedOperand(node);
+            return factor(node) == 0 && isLeaf(operand) ? Ast.NONE : operand;
+        }
+        return ast.first(node);
+    }
+
+    private void push(int node){
+
+        if (stackTop == stack.length){
+            stack = Arrays.copyOf(stack, stackTop * 2);
+        }
+        stack[stackTop++] = node;
+    }
+
+    private void writeNode(int node){
+
+        switch (ast.kind(node)){
+            case Ast.INT:
+                writeConstant(ast.value(node));
+                break;
+            case Ast.STRING:
+                String str = ast.string(node);
+                int slot = ast.op(node);
+
+                if (slot == -1){
+                    writeString(str);
+                }else {
+                    int readyLabel = newLabel();
+                    vmWriter.writePush(VMWriter.SEGMENT.STATIC,slot);
+                    vmWriter.writeIf(readyLabel);
+                    writeString(str);
+                    vmWriter.writePop(VMWriter.SEGMENT.STATIC,slot);
+                    vmWriter.writeLabel(readyLabel);
+                    vmWriter.writePush(VMWriter.SEGMENT.STATIC,slot);
+                }
+                break;
+            case Ast.KEYWORD:
+                switch (keyWords[ast.op(node)]){
+                    case TRUE:
+                        vmWriter.writePush(VMWriter.SEGMENT.CONST,0);
+                        vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
+                        break;
+                    case THIS:
+                        vmWriter.writePush(VMWriter.SEGMENT.POINTER,0);
+                        break;
+                    default:
+                        vmWriter.writePush(VMWriter.SEGMENT.CONST,0);
+                }
+                break;
+            case Ast.VAR:
+                vmWriter.writePush(segments[ast.op(node)], ast.value(node));
+                break;
+            case Ast.INDEX:
+                vmWriter.writeArithmetic(VMWriter.COMMAND.ADD);
+                vmWriter.writePop(VMWriter.SEGMENT.POINTER,1);
+                vmWriter.writePush(VMWriter.SEGMENT.THAT,0);
+                break;
+            case Ast.CALL:
+                int nArgs = 0;
+                for (int arg = ast.first(node); arg != Ast.NONE; arg = ast.next(arg)){
+                    nArgs++;
+                }
+                vmWriter.writeCall(ast.string(node), nArgs);
+                break;
+            case Ast.UNARY:
+                if (ast.op(node) == '-'){
+                    vmWriter.writeArithmetic(VMWriter.COMMAND.NEG);
+                }
+                else {
+                    vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
+                }
+                break;
+            case Ast.BINARY:
+                if (isReduced(node)){
+                    writeReduced(node);
+                }else {
+                    writeOp((char) ast.op(node));
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unknown expression node:" + ast.kind(node));
+        }
+    }
+
+    private boolean isReduced(int node){
+
+        if (optimizationLevel < 2 || ast.kind(node) != Ast.BINARY){
+            return false;
+        }
+
+        int left = ast.first(node);
+        int right = ast.next(left);
+
+        switch (ast.op(node)){
+            case '*':
+                if (ast.kind(right) == Ast.INT){
+                    return multiplyCost(left, ast.value(right)) <= MULTIPLY_BUDGET;
+                }
+                return ast.kind(left) == Ast.INT && multiplyCost(right, ast.value(left)) <= MULTIPLY_BUDGET;
+            case '/':
+                return ast.kind(right) == Ast.INT && Math.abs(ast.value(right)) == 1;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isLeaf(int node){
+        return ast.kind(node) == Ast.VAR;
+    }
+
+    private int multiplyCost(int operand, int factor){
+
+        if (factor == 0){
+            return 0;
+        }
+        if (factor == Short.MIN_VALUE){
+            return Integer.MAX_VALUE;
+        }
+
+        int multiplier = Math.abs(factor);
+        int bits = 32 - Integer.numberOfLeadingZeros(multiplier);
+        int cost = (factor < 0 ? 1 : 0) + 2 * (Integer.bitCount(multiplier) - 1);
+
+        if (bits > 1){
+            cost += (isLeaf(operand) ? 0 : 2) + 2 + 4 * (bits - 2);
+        }
+        return cost;
+    }
+
+    private int reducedOperand(int node){
+        int left = ast.first(node);
+        return ast.kind(ast.next(left)) == Ast.INT ? left : ast.next(left);
+    }
+
+    private int factor(int node){
+        int left = ast.first(node);
+        return ast.value(reducedOperand(node) == left ? ast.next(left) : left);
+    }
+
+    private void writeReduced(int node){
+
+        int operand = reducedOperand(node);
+        int factor = factor(node);
+        int multiplier = Math.abs(factor);
+        boolean leaf = isLeaf(operand);
+
+        if (factor == 0){
+            if (!leaf){
+                vmWriter.writePop(VMWriter.SEGMENT.TEMP,1);
+            }
+            vmWriter.writePush(VMWriter.SEGMENT.CONST,0);
+            return;
+        }
+
+        if (multiplier > 1){
+
+            int bits = 32 - Integer.numberOfLeadingZeros(multiplier);
+
+            if (!leaf){
+                vmWriter.writePop(VMWriter.SEGMENT.TEMP,1);
+                writeFactor(operand, leaf);
+            }
+
+            for (int bit = bits - 2; bit >= 0; bit--){
+
+                if (bit == bits - 2){
+                    writeFactor(operand, leaf);
+                }else {
+                    vmWriter.writePop(VMWriter.SEGMENT.TEMP,2);
+                    vmWriter.writePush(VMWriter.SEGMENT.TEMP,2);
+                    vmWriter.writePush(VMWriter.SEGMENT.TEMP,2);
+                }
+                vmWriter.writeArithmetic(VMWriter.COMMAND.ADD);
+
+                if ((multiplier >> bit & 1) != 0){
+                    writeFactor(operand, leaf);
+                    vmWriter.writeArithmetic(VMWriter.COMMAND.ADD);
+                }
+            }
+        }
+
+        if (factor < 0){
+            vmWriter.writeArithmetic(VMWriter.COMMAND.NEG);
+        }
+    }
+
+    private void writeFactor(int operand, boolean leaf){
+
+        if (leaf){
+            writeNode(operand);
+        }else {
+            vmWriter.writePush(VMWriter.SEGMENT.TEMP,1);
+        }
+    }
+
+    private void writeString(String str){
+
+        vmWriter.writePush(VMWriter.SEGMENT.CONST,str.length());
+        vmWriter.writeCall("String.new",1);
+
+        for (int i = 0; i < str.length(); i++){
+            vmWriter.writePush(VMWriter.SEGMENT.CONST,(int)str.charAt(i));
+            vmWriter.writeCall("String.appendChar",2);
+        }
+    }
+
+    private void writeConstant(int value){
+
+        if (value >= 0){
+            vmWriter.writePush(VMWriter.SEGMENT.CONST,value);
+        }
+        else if (value == -1 || value == Short.MIN_VALUE){
+            vmWriter.writePush(VMWriter.SEGMENT.CONST,~value);
+            vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
+        }
+        else {
+            vmWriter.writePush(VMWriter.SEGMENT.CONST,-value);
+            vmWriter.writeArithmetic(VMWriter.COMMAND.NEG);
+        }
+    }
+
+    private void writeOp(char op){
+
+        switch (op){
+            case '+':vmWriter.writeArithmetic(VMWriter.COMMAND.ADD);break;
+            case '-':vmWriter.writeArithmetic(VMWriter.COMMAND.SUB);break;
+            case '*':vmWriter.writeCall("Math.multiply",2);break;
+            case '/':vmWriter.writeCall("Math.divide",2);break;
+            case '<':vmWriter.writeArithmetic(VMWriter.COMMAND.LT);break;
+            case '>':vmWriter.writeArithmetic(VMWriter.COMMAND.GT);break;
+            case '=':vmWriter.writeArithmetic(VMWriter.COMMAND.EQ);break;
+            case '&':vmWriter.writeArithmetic(VMWriter.COMMAND.AND);break;
+            case '|':vmWriter.writeArithmetic(VMWriter.COMMAND.OR);break;
+            default:throw new IllegalStateException("Unknown op:" + op);
+        }
+    }
+}
\ No newline at end of file
@@ -1,20 +1,70 @@
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class CompilationEngine {
 
+    private static final int STATE_TERM = 0;
+    private static final int STATE_REDUCE = 1;
+
+    private static final int FRAME_EXPR = 0;
+    private static final int FRAME_UNARY = 1;
+    private static final int FRAME_PAREN = 2;
+    private static final int FRAME_INDEX = 3;
+    private static final int FRAME_CALL = 4;
+
+    private static final int TASK_TOKENS = 4096;
+
     private VMWriter vmWriter;
     private JackTokenizer jTokenizer;
     private SymbolTable symbolTable;
+    private Ast ast;
+    private ForkJoinPool pool;
+    private ClassOutline outline;
+    private SignatureIndex index;
+    private int optimizationLevel;
+    private Peephole peephole;
+    private DeadCode deadCode;
+    private LocalSlots localSlots;
+    private boolean stringPooling = true;
+    private StringPool stringPool;
+    private int stringPoolLimit = StringPool.MAX_SLOTS;
+    private boolean held;
     private String currentClass;
     private String currentSubroutine;
 
-    private int labelIndex;
+    private int[] frameKinds = new int[16];
+    private int[] frameData = new int[16];
+    private int[] frameNodes = new int[16];
+    private int frameTop;
+    private int operand;
 
     public CompilationEngine(File inFile, File outFile) {
-        jTokenizer = new JackTokenizer(inFile);
+        this(inFile, outFile, false);
+    }
+
+    public CompilationEngine(File inFile, File outFile, boolean streaming) {
+        this(inFile, outFile, streaming, null);
+    }
+
+    public CompilationEngine(File inFile, File outFile, boolean streaming, ForkJoinPool pool) {
+        jTokenizer = new JackTokenizer(inFile, streaming);
         vmWriter = new VMWriter(outFile);
         symbolTable = new SymbolTable();
-        labelIndex = 0;
+        ast = new Ast();
+        this.pool = streaming ? null : pool;
+    }
+
+    private CompilationEngine(JackTokenizer jTokenizer, SymbolTable symbolTable, String currentClass) {
+        this.jTokenizer = jTokenizer;
+        this.symbolTable = symbolTable;
+        this.currentClass = currentClass;
+        ast = new Ast();
     }
 
     private String currentFunction(){
@@ -24,6 +74,84 @@ public class CompilationEngine {
         return "";
     }
 
+    private boolean nextIsSymbol(char symbol){
+        return jTokenizer.peekSymbol(1) == symbol;
+    }
+
+    private boolean nextIsKeyWord(JackTokenizer.KEYWORD keyword){
+        return jTokenizer.peekKeyWord(1) == keyword;
+    }
+
+    public void setSignatureIndex(SignatureIndex index){
+        this.index = index;
+    }
+
+    public void setOptimizationLevel(int optimizationLevel){
+        this.optimizationLevel = optimizationLevel;
+
+        if (optimizationLevel >= 1){
+            peephole = new Peephole();
+            deadCode = new DeadCode();
+            vmWriter.setPeephole(peephole);
+            vmWriter.setDeadCode(deadCode);
+        }
+
+        if (optimizationLevel >= 2){
+            localSlots = new LocalSlots();
+            vmWriter.setLocalSlots(localSlots);
+        }
+    }
+
+    public Peephole getPeephole(){
+        return peephole;
+    }
+
+    public DeadCode getDeadCode(){
+        return deadCode;
+    }
+
+    public LocalSlots getLocalSlots(){
+        return localSlots;
+    }
+
+    public void setStringPooling(boolean stringPooling){
+        this.stringPooling = stringPooling;
+    }
+
+    public void setStringPoolLimit(int stringPoolLimit){
+        this.stringPoolLimit = stringPoolLimit;
+    }
+
+    public StringPool getStringPool(){
+        return stringPool;
+    }
+
+    private void openStringPool(){
+
+        if (optimizationLevel >= 1 && stringPooling){
+            stringPool = new StringPool(symbolTable.varCount(Symbol.KIND.STATIC), stringPoolLimit);
+        }
+    }
+
+    private void registerStrings(JackTokenizer tokens){
+
+        while (tokens.hasMoreTokens()){
+            tokens.advance();
+
+            if (tokens.tokenType() == JackTokenizer.TYPE.STRING_CONST){
+                stringPool.slot(tokens.stringVal());
+            }
+        }
+    }
+
+    public int getTokenCount(){
+        return jTokenizer.getTokenCount();
+    }
+
+    public int getVisitCount(){
+        return jTokenizer.getVisitCount();
+    }
+
     private String compileType(){
         jTokenizer.advance();
         if (jTokenizer.tokenType() == JackTokenizer.TYPE.KEYWORD && (jTokenizer.keyWord() == JackTokenizer.KEYWORD.INT || jTokenizer.keyWord() == JackTokenizer.KEYWORD.CHAR || jTokenizer.keyWord() == JackTokenizer.KEYWORD.BOOLEAN)){
@@ -37,102 +165,260 @@ public class CompilationEngine {
     }
 
     public void compileClass(){
-        jTokenizer.advance();
 
-        if (jTokenizer.tokenType() != JackTokenizer.TYPE.KEYWORD || jTokenizer.keyWord() != JackTokenizer.KEYWORD.CLASS){
-            System.out.println(jTokenizer.getCurrentToken());
-            error("class");
+        try {
+            if (pool != null){
+                compileSubroutinesParallel();
+            }else {
+                compileSubroutines();
+            }
+        } finally {
+            jTokenizer.close();
         }
 
-        jTokenizer.advance();
+        if (held){
+            vmWriter.optimize();
+        }else {
+            vmWriter.close();
+        }
+    }
 
-        if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
-            error("className");
+    public void setHeld(boolean held){
+        this.held = held;
+        vmWriter.setHeld(held);
+    }
+
+    public VmProgram getProgram(){
+        return vmWriter.getProgram();
+    }
+
+    public void close(){
+        vmWriter.close();
+    }
+
+    private void compileSubroutines(){
+        compileClassHeader();
+
+        CodeGenerator generator = new CodeGenerator(ast, vmWriter, optimizationLevel);
+        generator.setFieldCount(symbolTable.varCount(Symbol.KIND.FIELD));
+
+        while (!nextIsSymbol('}')){
+            generator.writeSubroutine(compileSubroutineDec());
+            ast.clear();
         }
 
-        currentClass = jTokenizer.identifier();
+        compileClassEnd();
+    }
 
-        requireSymbol('{');
-        compileClassVarDec();
-        compileSubroutine();
-        requireSymbol('}');
+    private void compileSubroutinesParallel(){
+        compileClassHeader();
 
-        if (jTokenizer.hasMoreTokens()){
-            throw new IllegalStateException("Unexpected tokens");
+        ArrayList<Callable<VMWriter>> tasks = new ArrayList<Callable<VMWriter>>();
+
+        while (!nextIsSymbol('}')){
+            int from = jTokenizer.getPosition();
+
+            do {
+                jTokenizer.skipBlock();
+            }while (jTokenizer.getPosition() - from < TASK_TOKENS && jTokenizer.peek() != JackTokenizer.TYPE.NONE && !nextIsSymbol('}'));
+
+            final CompilationEngine engine = new CompilationEngine(jTokenizer.slice(from, jTokenizer.getPosition()), new SymbolTable(symbolTable), currentClass);
+            engine.index = index;
+            engine.optimizationLevel = optimizationLevel;
+            engine.stringPool = stringPool;
+
+            if (stringPool != null){
+                registerStrings(jTokenizer.slice(from, jTokenizer.getPosition()));
+            }
+
+            tasks.add(new Callable<VMWriter>() {
+                @Override
+                public VMWriter call() {
+                    return engine.compileSubroutinesCode();
+                }
+            });
         }
 
-        vmWriter.close();
+        compileClassEnd();
 
+        try {
+            for (Future<VMWriter> code: pool.invokeAll(tasks)){
+                vmWriter.writeCode(code.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compiling " + currentClass);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
     }
 
-    private void compileClassVarDec(){
+    private VMWriter compileSubroutinesCode(){
 
-        jTokenizer.advance();
+        vmWriter = new VMWriter();
 
-        if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == '}'){
-            jTokenizer.pointerBack();
-            return;
+        int root = ast.add(Ast.CLASS, 0, ast.addString(currentClass), Ast.NONE, symbolTable.varCount(Symbol.KIND.FIELD), symbolTable.varCount(Symbol.KIND.STATIC));
+        int tail = Ast.NONE;
+
+        while (jTokenizer.hasMoreTokens()){
+
+            int subroutine = compileSubroutineDec();
+
+            if (tail == Ast.NONE){
+                ast.setFirst(root, subroutine);
+            }else {
+                ast.setNext(tail, subroutine);
+            }
+            tail = subroutine;
         }
 
-        if (jTokenizer.tokenType() != JackTokenizer.TYPE.KEYWORD){
-            error("Keywords");
+        new CodeGenerator(ast, vmWriter, optimizationLevel).writeClass(root);
+
+        return vmWriter;
+    }
+
+    public static ClassOutline outline(File inFile, boolean countLocals){
+
+        CompilationEngine engine = new CompilationEngine(new JackTokenizer(inFile, false, !countLocals), new SymbolTable(), "");
+        return engine.outlineClass(countLocals);
+    }
+
+    public static int staticCount(File inFile, boolean streaming){
+
+        JackTokenizer tokenizer = new JackTokenizer(inFile, streaming, true);
+
+        try {
+            CompilationEngine engine = new CompilationEngine(tokenizer, new SymbolTable(), "");
+            engine.compileClassName();
+            engine.requireSymbol('{');
+            engine.compileClassVarDec();
+            return engine.symbolTable.varCount(Symbol.KIND.STATIC);
+        } finally {
+            tokenizer.close();
         }
+    }
 
-        if (jTokenizer.keyWord() == JackTokenizer.KEYWORD.CONSTRUCTOR || jTokenizer.keyWord() == JackTokenizer.KEYWORD.FUNCTION || jTokenizer.keyWord() == JackTokenizer.KEYWORD.METHOD){
-            jTokenizer.pointerBack();
-            return;
+    public static ClassOutline outline(ByteBuffer source){
+
+        CompilationEngine engine = new CompilationEngine(new JackTokenizer(source, false, true), new SymbolTable(), "");
+        return engine.outlineClass(false);
+    }
+
+    private ClassOutline outlineClass(boolean countLocals){
+
+        compileClassName();
+        outline = new ClassOutline(currentClass);
+        requireSymbol('{');
+        compileClassVarDec();
+
+        while (!nextIsSymbol('}')){
+
+            Signature signature = compileSignature();
+
+            if (countLocals){
+                requireSymbol('{');
+                compileVarDec();
+                signature.setLocalCount(symbolTable.varCount(Symbol.KIND.VAR));
+                jTokenizer.skipBlockEnd();
+            }else {
+                jTokenizer.skipBlock();
+            }
+
+            outline.addSubroutine(signature);
         }
 
-        if (jTokenizer.keyWord() != JackTokenizer.KEYWORD.STATIC && jTokenizer.keyWord() != JackTokenizer.KEYWORD.FIELD){
-            error("static or field");
+        compileClassEnd();
+        return outline;
+    }
+
+    private void compileClassHeader(){
+        compileClassName();
+        requireSymbol('{');
+        compileClassVarDec();
+        openStringPool();
+    }
+
+    private void compileClassName(){
+        jTokenizer.advance();
+
+        if (jTokenizer.tokenType() != JackTokenizer.TYPE.KEYWORD || jTokenizer.keyWord() != JackTokenizer.KEYWORD.CLASS){
+            System.out.println(jTokenizer.getCurrentToken());
+            error("class");
         }
 
-        Symbol.KIND kind = null;
-        String type = "";
-        String name = "";
+        jTokenizer.advance();
 
-        switch (jTokenizer.keyWord()){
-            case STATIC:kind = Symbol.KIND.STATIC;break;
-            case FIELD:kind = Symbol.KIND.FIELD;break;
+        if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
+            error("className");
         }
 
-        type = compileType();
+        currentClass = jTokenizer.identifier();
+        ast.clear();
+    }
 
-        boolean varNamesDone = false;
+    private void compileClassEnd(){
+        requireSymbol('}');
 
-        do {
+        if (jTokenizer.hasMoreTokens()){
+            throw new IllegalStateException("Unexpected tokens");
+        }
+    }
 
-            jTokenizer.advance();
-            if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
-                error("identifier");
-            }
+    private void compileClassVarDec(){
+
+        while (nextIsKeyWord(JackTokenizer.KEYWORD.STATIC) || nextIsKeyWord(JackTokenizer.KEYWORD.FIELD)){
 
-            name = jTokenizer.identifier();
-            symbolTable.define(name,type,kind);
             jTokenizer.advance();
 
-            if (jTokenizer.tokenType() != JackTokenizer.TYPE.SYMBOL || (jTokenizer.symbol() != ',' && jTokenizer.symbol() != ';')){
-                error("',' or ';'");
-            }
+            Symbol.KIND kind = null;
+            String type = "";
+            String name = "";
 
-            if (jTokenizer.symbol() == ';'){
-                break;
+            switch (jTokenizer.keyWord()){
+                case STATIC:kind = Symbol.KIND.STATIC;break;
+                case FIELD:kind = Symbol.KIND.FIELD;break;
             }
 
+            type = compileType();
 
-        }while(true);
+            do {
 
-        compileClassVarDec();
-    }
+                jTokenizer.advance();
+                if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
+                    error("identifier");
+                }
 
-    private void compileSubroutine(){
+                name = jTokenizer.identifier();
+                symbolTable.define(name,type,kind);
 
-        jTokenizer.advance();
+                if (outline != null){
+                    outline.addVariable(name, new Symbol(type, kind, symbolTable.varCount(kind) - 1));
+                }
+                jTokenizer.advance();
 
-        if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == '}'){
-            jTokenizer.pointerBack();
-            return;
+                if (jTokenizer.tokenType() != JackTokenizer.TYPE.SYMBOL || (jTokenizer.symbol() != ',' && jTokenizer.symbol() != ';')){
+                    error("',' or ';'");
+                }
+
+                if (jTokenizer.symbol() == ';'){
+                    break;
+                }
+
+
+            }while(true);
         }
+    }
+
+    private int compileSubroutineDec(){
+        return compileSubroutineBody(compileSignature().getKind());
+    }
+
+    private Signature compileSignature(){
+
+        jTokenizer.advance();
 
         if (jTokenizer.tokenType() != JackTokenizer.TYPE.KEYWORD || (jTokenizer.keyWord() != JackTokenizer.KEYWORD.CONSTRUCTOR && jTokenizer.keyWord() != JackTokenizer.KEYWORD.FUNCTION && jTokenizer.keyWord() != JackTokenizer.KEYWORD.METHOD)){
             error("constructor|function|method");
@@ -147,11 +433,10 @@ public class CompilationEngine {
 
         String type = "";
 
-        jTokenizer.advance();
-        if (jTokenizer.tokenType() == JackTokenizer.TYPE.KEYWORD && jTokenizer.keyWord() == JackTokenizer.KEYWORD.VOID){
+        if (nextIsKeyWord(JackTokenizer.KEYWORD.VOID)){
+            jTokenizer.advance();
             type = "void";
         }else {
-            jTokenizer.pointerBack();
             type = compileType();
         }
 
@@ -164,77 +449,68 @@ public class CompilationEngine {
 
         requireSymbol('(');
 
-        compileParameterList();
+        ArrayList<String> paramTypes = new ArrayList<String>();
+        ArrayList<String> paramNames = new ArrayList<String>();
+        compileParameterList(paramTypes, paramNames);
 
         requireSymbol(')');
 
-        compileSubroutineBody(keyword);
-
-        compileSubroutine();
-
+        return new Signature(keyword, type, currentSubroutine, paramTypes.toArray(new String[0]), paramNames.toArray(new String[0]));
     }
 
-    private void compileSubroutineBody(JackTokenizer.KEYWORD keyword){
+    private int compileSubroutineBody(JackTokenizer.KEYWORD keyword){
         requireSymbol('{');
         compileVarDec();
-        wrtieFunctionDec(keyword);
-        compileStatement();
+        int subroutine = ast.add(Ast.SUBROUTINE, keyword.ordinal(), ast.addString(currentFunction()), Ast.NONE, symbolTable.varCount(Symbol.KIND.VAR), symbolTable.varCount(Symbol.KIND.ARG));
+        ast.setFirst(subroutine, compileStatement());
         requireSymbol('}');
+        return subroutine;
     }
 
-    private void wrtieFunctionDec(JackTokenizer.KEYWORD keyword){
-
-        vmWriter.writeFunction(currentFunction(),symbolTable.varCount(Symbol.KIND.VAR));
+    private int compileStatement(){
 
-        if (keyword == JackTokenizer.KEYWORD.METHOD){
-            vmWriter.writePush(VMWriter.SEGMENT.ARG, 0);
-            vmWriter.writePop(VMWriter.SEGMENT.POINTER,0);
+        int head = Ast.NONE;
+        int tail = Ast.NONE;
 
-        }
-        else if (keyword == JackTokenizer.KEYWORD.CONSTRUCTOR){
-            vmWriter.writePush(VMWriter.SEGMENT.CONST,symbolTable.varCount(Symbol.KIND.FIELD));
-            vmWriter.writeCall("Memory.alloc", 1);
-            vmWriter.writePop(VMWriter.SEGMENT.POINTER,0);
-        }
-    }
+        while (!nextIsSymbol('}')){
 
-    private void compileStatement(){
+            jTokenizer.advance();
 
-        jTokenizer.advance();
+            int statement = Ast.NONE;
 
-        if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == '}'){
-            jTokenizer.pointerBack();
-            return;
-        }
+            if (jTokenizer.tokenType() != JackTokenizer.TYPE.KEYWORD){
+                error("keyword");
+            }
+            else {
+                switch (jTokenizer.keyWord()){
+                    case LET:statement = compileLet();break;
+                    case IF:statement = compileIf();break;
+                    case WHILE:statement = compilesWhile();break;
+                    case DO:statement = compileDo();break;
+                    case RETURN:statement = compileReturn();break;
+                    default:error("'let'|'if'|'while'|'do'|'return'");
+                }
+            }
 
-        if (jTokenizer.tokenType() != JackTokenizer.TYPE.KEYWORD){
-            error("keyword");
-        }
-        else {
-            switch (jTokenizer.keyWord()){
-                case LET:compileLet();break;
-                case IF:compileIf();break;
-                case WHILE:compilesWhile();break;
-                case DO:compileDo();break;
-                case RETURN:compileReturn();break;
-                default:error("'let'|'if'|'while'|'do'|'return'");
+            if (head == Ast.NONE){
+                head = statement;
+            }else {
+                ast.setNext(tail, statement);
             }
+            tail = statement;
         }
 
-        compileStatement();
+        return head;
     }
 
-    private void compileParameterList(){
+    private void compileParameterList(ArrayList<String> types, ArrayList<String> names){
 
-        jTokenizer.advance();
-        if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == ')'){
-            jTokenizer.pointerBack();
+        if (nextIsSymbol(')')){
             return;
         }
 
         String type = "";
 
-        jTokenizer.pointerBack();
         do {
             type = compileType();
 
@@ -244,104 +520,98 @@ public class CompilationEngine {
             }
 
             symbolTable.define(jTokenizer.identifier(),type, Symbol.KIND.ARG);
+            types.add(type);
+            names.add(jTokenizer.identifier());
 
-            jTokenizer.advance();
-            if (jTokenizer.tokenType() != JackTokenizer.TYPE.SYMBOL || (jTokenizer.symbol() != ',' && jTokenizer.symbol() != ')')){
-                error("',' or ')'");
-            }
-
-            if (jTokenizer.symbol() == ')'){
-                jTokenizer.pointerBack();
+            if (!nextIsSymbol(',')){
                 break;
             }
 
+            jTokenizer.advance();
+
         }while(true);
 
     }
 
     private void compileVarDec(){
 
-        jTokenizer.advance();
+        while (nextIsKeyWord(JackTokenizer.KEYWORD.VAR)){
 
-        if (jTokenizer.tokenType() != JackTokenizer.TYPE.KEYWORD || jTokenizer.keyWord() != JackTokenizer.KEYWORD.VAR){
-            jTokenizer.pointerBack();
-            return;
-        }
-
-        String type = compileType();
+            jTokenizer.advance();
 
-        boolean varNamesDone = false;
+            String type = compileType();
 
-        do {
+            do {
 
-            jTokenizer.advance();
+                jTokenizer.advance();
 
-            if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
-                error("identifier");
-            }
+                if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
+                    error("identifier");
+                }
 
-            symbolTable.define(jTokenizer.identifier(),type, Symbol.KIND.VAR);
-            jTokenizer.advance();
+                symbolTable.define(jTokenizer.identifier(),type, Symbol.KIND.VAR);
+                jTokenizer.advance();
 
-            if (jTokenizer.tokenType() != JackTokenizer.TYPE.SYMBOL || (jTokenizer.symbol() != ',' && jTokenizer.symbol() != ';')){
-                error("',' or ';'");
-            }
+                if (jTokenizer.tokenType() != JackTokenizer.TYPE.SYMBOL || (jTokenizer.symbol() != ',' && jTokenizer.symbol() != ';')){
+                    error("',' or ';'");
+                }
 
-            if (jTokenizer.symbol() == ';'){
-                break;
-            }
+                if (jTokenizer.symbol() == ';'){
+                    break;
+                }
 
 
-        }while(true);
-        compileVarDec();
+            }while(true);
+        }
 
     }
 
-    private void compileDo(){
-        compileSubroutineCall();
+    private int compileDo(){
+        jTokenizer.advance();
+
+        if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
+            error("identifier");
+        }
+
+        int call = compileSubroutineCall(jTokenizer.identifier());
         requireSymbol(';');
-        vmWriter.writePop(VMWriter.SEGMENT.TEMP,0);
+        return ast.add(Ast.DO, 0, 0, call, Ast.NONE, Ast.NONE);
     }
 
-    private void compileLet(){
+    private int compileLet(){
         jTokenizer.advance();
-        
+
         if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
             error("varName");
         }
 
-        String varName = jTokenizer.identifier();
-        jTokenizer.advance();
-        
-        if (jTokenizer.tokenType() != JackTokenizer.TYPE.SYMBOL || (jTokenizer.symbol() != '[' && jTokenizer.symbol() != '=')){
-            error("'['|'='");
-        }
+        int target = variable(jTokenizer.identifier());
 
-        boolean expExist = false;
-
-        if (jTokenizer.symbol() == '['){
-            expExist = true;
-            vmWriter.writePush(getSeg(symbolTable.kindOf(varName)),symbolTable.indexOf(varName));
-            compileExpression();
+        if (nextIsSymbol('[')){
+            jTokenizer.advance();
+            int index = compileExpression();
             requireSymbol(']');
-            vmWriter.writeArithmetic(VMWriter.COMMAND.ADD);
+            ast.setNext(target, index);
+            target = ast.add(Ast.INDEX, 0, 0, target, Ast.NONE, Ast.NONE);
         }
 
-        if (expExist) jTokenizer.advance();
-
-        compileExpression();
+        requireSymbol('=');
+        int value = compileExpression();
         requireSymbol(';');
 
-        if (expExist){
-            vmWriter.writePop(VMWriter.SEGMENT.TEMP,0);
-            vmWriter.writePop(VMWriter.SEGMENT.POINTER,1);
-            vmWriter.writePush(VMWriter.SEGMENT.TEMP,0);
-            vmWriter.writePop(VMWriter.SEGMENT.THAT,0);
-        }
-        else {
-            vmWriter.writePop(getSeg(symbolTable.kindOf(varName)), symbolTable.indexOf(varName));
+        return ast.add(Ast.LET, 0, 0, target, value, Ast.NONE);
+    }
+
+    private int variable(String name){
+        return variable(symbolTable.resolve(name));
+    }
 
+    private int variable(Symbol symbol){
+
+        if (symbol == null){
+            return ast.add(Ast.VAR, VMWriter.SEGMENT.NONE.ordinal(), -1);
         }
+        return ast.add(Ast.VAR, getSeg(symbol.getKind()).ordinal(), symbol.getIndex());
     }
 
     private VMWriter.SEGMENT getSeg(Symbol.KIND kind){
@@ -356,180 +626,259 @@ public class CompilationEngine {
 
     }
 
-    private void compilesWhile(){
-
-        String continueLabel = newLabel();
-        String topLabel = newLabel();
-
-        vmWriter.writeLabel(topLabel);
+    private int compilesWhile(){
 
         requireSymbol('(');
-        compileExpression();
+        int condition = compileExpression();
         requireSymbol(')');
-        vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
-        vmWriter.writeIf(continueLabel);
         requireSymbol('{');
-        compileStatement();
+        int body = compileStatement();
         requireSymbol('}');
-        vmWriter.writeGoto(topLabel);
-        vmWriter.writeLabel(continueLabel);
-    }
 
-    private String newLabel(){
-        return "LABEL_" + (labelIndex++);
+        return ast.add(Ast.WHILE, 0, 0, condition, body, Ast.NONE);
     }
 
-    private void compileReturn(){
+    private int compileReturn(){
 
-        jTokenizer.advance();
+        int value = Ast.NONE;
 
-        if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == ';'){
-            vmWriter.writePush(VMWriter.SEGMENT.CONST,0);
+        if (nextIsSymbol(';')){
+            jTokenizer.advance();
         }else {
-            jTokenizer.pointerBack();
-            compileExpression();
+            value = compileExpression();
             requireSymbol(';');
         }
 
-        vmWriter.writeReturn();
+        return ast.add(Ast.RETURN, 0, 0, value, Ast.NONE, Ast.NONE);
 
     }
 
-    private void compileIf(){
-
-        String elseLabel = newLabel();
-        String endLabel = newLabel();
+    private int compileIf(){
 
         requireSymbol('(');
-        compileExpression();
+        int condition = compileExpression();
         requireSymbol(')');
-        vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
-        vmWriter.writeIf(elseLabel);
         requireSymbol('{');
-        compileStatement();
+        int thenBody = compileStatement();
         requireSymbol('}');
-        vmWriter.writeGoto(endLabel);
-        vmWriter.writeLabel(elseLabel);
-        jTokenizer.advance();
-        
-        if (jTokenizer.tokenType() == JackTokenizer.TYPE.KEYWORD && jTokenizer.keyWord() == JackTokenizer.KEYWORD.ELSE){
+
+        int elseBody = Ast.NONE;
+
+        if (nextIsKeyWord(JackTokenizer.KEYWORD.ELSE)){
+            jTokenizer.advance();
             requireSymbol('{');
-            compileStatement();
+            elseBody = compileStatement();
             requireSymbol('}');
         }
-        else {
-            jTokenizer.pointerBack();
+
+        return ast.add(Ast.IF, 0, 0, condition, thenBody, elseBody);
+
+    }
+
+    private int compileSubroutineCall(String name){
+        int base = frameTop;
+        compileOperands(openCall(name), base);
+        return operand;
+    }
+
+    private int compileExpression(){
+        int base = frameTop;
+        pushFrame(FRAME_EXPR, 0, Ast.NONE);
+        compileOperands(STATE_TERM, base);
+        return operand;
+    }
+
+    private void compileOperands(int state, int base){
+
+        while (frameTop > base){
+
+            if (state == STATE_TERM){
+                state = compileTerm();
+                continue;
+            }
+
+            int top = frameTop - 1;
+
+            switch (frameKinds[top]){
+                case FRAME_UNARY:
+                    operand = optimizationLevel >= 1 && isConstant(operand) ? foldUnary(frameData[top], operand) : ast.add(Ast.UNARY, frameData[top], 0, operand, Ast.NONE, Ast.NONE);
+                    frameTop--;
+                    break;
+                case FRAME_EXPR:
+                    if (frameNodes[top] != Ast.NONE){
+                        if (optimizationLevel >= 1 && isConstant(frameNodes[top]) && isConstant(operand) && canFold(frameData[top], operand)){
+                            operand = foldBinary(frameData[top], frameNodes[top], operand);
+                        }
+                        else {
+                            ast.setNext(frameNodes[top], operand);
+                            operand = ast.add(Ast.BINARY, frameData[top], 0, frameNodes[top], Ast.NONE, Ast.NONE);
+                        }
+                    }
+                    if (JackTokenizer.isOp(jTokenizer.peekSymbol(1))){
+                        jTokenizer.advance();
+                        frameData[top] = jTokenizer.symbol();
+                        frameNodes[top] = operand;
+                        state = STATE_TERM;
+                    }
+                    else {
+                        frameTop--;
+                        state = closeOperand(base);
+                    }
+                    break;
+                default:
+                    error("expression");
+            }
         }
 
-        vmWriter.writeLabel(endLabel);
+    }
+
+    private boolean isConstant(int node){
 
+        if (ast.kind(node) == Ast.KEYWORD){
+            return ast.op(node) != JackTokenizer.KEYWORD.THIS.ordinal();
+        }
+        return ast.kind(node) == Ast.INT;
+    }
+
+    private int constantValue(int node){
+
+        if (ast.kind(node) == Ast.KEYWORD){
+            return ast.op(node) == JackTokenizer.KEYWORD.TRUE.ordinal() ? -1 : 0;
+        }
+        return ast.value(node);
+    }
+
+    private boolean canFold(int op, int right){
+        return op != '/' || constantValue(right) != 0;
+    }
+
+    private int foldUnary(int op, int node){
+
+        int value = constantValue(node);
+        return ast.add(Ast.INT, 0, (short) (op == '-' ? -value : ~value));
+    }
+
+    private int foldBinary(int op, int left, int right){
+
+        int x = constantValue(left);
+        int y = constantValue(right);
+        int value;
+
+        switch (op){
+            case '+':value = x + y;break;
+            case '-':value = x - y;break;
+            case '*':value = x * y;break;
+            case '/':value = x / y;break;
+            case '<':value = x < y ? -1 : 0;break;
+            case '>':value = x > y ? -1 : 0;break;
+            case '=':value = x == y ? -1 : 0;break;
+            case '&':value = x & y;break;
+            case '|':value = x | y;break;
+            default:throw new IllegalStateException("Unknown op:" + (char) op);
+        }
+        return ast.add(Ast.INT, 0, (short) value);
+    }
+
+    private int closeOperand(int base){
+
+        if (frameTop == base){
+            return STATE_REDUCE;
+        }
+
+        int top = frameTop - 1;
+
+        switch (frameKinds[top]){
+            case FRAME_PAREN:
+                requireSymbol(')');
+                frameTop--;
+                return STATE_REDUCE;
+            case FRAME_INDEX:
+                requireSymbol(']');
+                ast.setNext(frameNodes[top], operand);
+                operand = ast.add(Ast.INDEX, 0, 0, frameNodes[top], Ast.NONE, Ast.NONE);
+                frameTop--;
+                return STATE_REDUCE;
+            case FRAME_CALL:
+                addArgument(frameNodes[top], frameData[top], operand);
+                frameData[top] = operand;
+                if (nextIsSymbol(',')){
+                    jTokenizer.advance();
+                    pushFrame(FRAME_EXPR, 0, Ast.NONE);
+                    return STATE_TERM;
+                }
+                return closeCall();
+            default:
+                return STATE_REDUCE;
+        }
     }
 
-    private void compileTerm(){
+    private int compileTerm(){
         jTokenizer.advance();
-        
+
         if (jTokenizer.tokenType() == JackTokenizer.TYPE.IDENTIFIER){
             String tempId = jTokenizer.identifier();
-            jTokenizer.advance();
-            
-            if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == '['){
-                vmWriter.writePush(getSeg(symbolTable.kindOf(tempId)),symbolTable.indexOf(tempId));
-                compileExpression();
-                requireSymbol(']');
-                vmWriter.writeArithmetic(VMWriter.COMMAND.ADD);
-                vmWriter.writePop(VMWriter.SEGMENT.POINTER,1);
-                vmWriter.writePush(VMWriter.SEGMENT.THAT,0);
+
+            if (nextIsSymbol('[')){
+                jTokenizer.advance();
+                pushFrame(FRAME_INDEX, 0, variable(tempId));
+                pushFrame(FRAME_EXPR, 0, Ast.NONE);
+                return STATE_TERM;
             }
-            else if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && (jTokenizer.symbol() == '(' || jTokenizer.symbol() == '.')){
-                jTokenizer.pointerBack();jTokenizer.pointerBack();
-                compileSubroutineCall();
+            else if (nextIsSymbol('(') || nextIsSymbol('.')){
+                return openCall(tempId);
             }
             else {
-                jTokenizer.pointerBack();
-                vmWriter.writePush(getSeg(symbolTable.kindOf(tempId)), symbolTable.indexOf(tempId));
+                operand = variable(tempId);
             }
 
         }
         else{
             if (jTokenizer.tokenType() == JackTokenizer.TYPE.INT_CONST){
-                vmWriter.writePush(VMWriter.SEGMENT.CONST,jTokenizer.intVal());
+                operand = ast.add(Ast.INT, 0, jTokenizer.intVal());
             }
             else if (jTokenizer.tokenType() == JackTokenizer.TYPE.STRING_CONST){
                 String str = jTokenizer.stringVal();
-
-                vmWriter.writePush(VMWriter.SEGMENT.CONST,str.length());
-                vmWriter.writeCall("String.new",1);
-
-                for (int i = 0; i < str.length(); i++){
-                    vmWriter.writePush(VMWriter.SEGMENT.CONST,(int)str.charAt(i));
-                    vmWriter.writeCall("String.appendChar",2);
-                }
-
-            }
-            else if(jTokenizer.tokenType() == JackTokenizer.TYPE.KEYWORD && jTokenizer.keyWord() == JackTokenizer.KEYWORD.TRUE){
-                vmWriter.writePush(VMWriter.SEGMENT.CONST,0);
-                vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
-
+                operand = ast.add(Ast.STRING, stringPool != null ? stringPool.slot(str) : -1, ast.addString(str));
             }
-            else if(jTokenizer.tokenType() == JackTokenizer.TYPE.KEYWORD && jTokenizer.keyWord() == JackTokenizer.KEYWORD.THIS){
-                vmWriter.writePush(VMWriter.SEGMENT.POINTER,0);
-
-            }
-            else if(jTokenizer.tokenType() == JackTokenizer.TYPE.KEYWORD && (jTokenizer.keyWord() == JackTokenizer.KEYWORD.FALSE || jTokenizer.keyWord() == JackTokenizer.KEYWORD.NULL)){
-                vmWriter.writePush(VMWriter.SEGMENT.CONST,0);
+            else if(jTokenizer.tokenType() == JackTokenizer.TYPE.KEYWORD && (jTokenizer.keyWord() == JackTokenizer.KEYWORD.TRUE || jTokenizer.keyWord() == JackTokenizer.KEYWORD.FALSE || jTokenizer.keyWord() == JackTokenizer.KEYWORD.NULL || jTokenizer.keyWord() == JackTokenizer.KEYWORD.THIS)){
+                operand = ast.add(Ast.KEYWORD, jTokenizer.keyWord().ordinal(), 0);
             }
             else if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == '('){
-                compileExpression();
-                requireSymbol(')');
+                pushFrame(FRAME_PAREN, 0, Ast.NONE);
+                pushFrame(FRAME_EXPR, 0, Ast.NONE);
+                return STATE_TERM;
             }
             else if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && (jTokenizer.symbol() == '-' || jTokenizer.symbol() == '~')){
-
-                char s = jTokenizer.symbol();
-                compileTerm();
-                if (s == '-'){
-                    vmWriter.writeArithmetic(VMWriter.COMMAND.NEG);
-                }
-                else {
-                    vmWriter.writeArithmetic(VMWriter.COMMAND.NOT);
-                }
-
+                pushFrame(FRAME_UNARY, jTokenizer.symbol(), Ast.NONE);
+                return STATE_TERM;
             }
             else {
                 error("integerConstant|stringConstant|keywordConstant|'(' expression ')'|unaryOp term");
             }
         }
 
+        return STATE_REDUCE;
     }
 
-
-    private void compileSubroutineCall(){
+    private int openCall(String name){
+        int receiver = Ast.NONE;
         jTokenizer.advance();
-        
-        if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
-            error("identifier");
-        }
 
-        String name = jTokenizer.identifier();
-        int nArgs = 0;
-        jTokenizer.advance();
-        
         if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == '('){
-            vmWriter.writePush(VMWriter.SEGMENT.POINTER,0);
-            nArgs = compileExpressionList() + 1;
-            requireSymbol(')');
-            vmWriter.writeCall(currentClass + '.' + name, nArgs);
-
+            receiver = ast.add(Ast.KEYWORD, JackTokenizer.KEYWORD.THIS.ordinal(), 0);
+            name = currentClass + '.' + name;
         }
         else if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == '.'){
             String objName = name;
             jTokenizer.advance();
-            
+
             if (jTokenizer.tokenType() != JackTokenizer.TYPE.IDENTIFIER){
                 error("identifier");
             }
 
             name = jTokenizer.identifier();
-            String type = symbolTable.typeOf(objName);
+            Symbol symbol = symbolTable.resolve(objName);
+            String type = symbol != null ? symbol.getType() : "";
 
             if (type.equals("int")||type.equals("boolean")||type.equals("char")||type.equals("void")){
                 error("no built-in type");
@@ -538,82 +887,99 @@ public class CompilationEngine {
                 name = objName + "." + name;
             }
             else {
-                nArgs = 1;
-                vmWriter.writePush(getSeg(symbolTable.kindOf(objName)), symbolTable.indexOf(objName));
-                name = symbolTable.typeOf(objName) + "." + name;
+                receiver = variable(symbol);
+                name = type + "." + name;
             }
 
             requireSymbol('(');
-            nArgs += compileExpressionList();
-            requireSymbol(')');
-            vmWriter.writeCall(name,nArgs);
         }
         else {
             error("'('|'.'");
         }
 
-    }
+        int call = ast.add(Ast.CALL, receiver != Ast.NONE ? 1 : 0, ast.addString(name));
+        pushFrame(FRAME_CALL, Ast.NONE, call);
 
-    private void compileExpression(){
-        compileTerm();
-        do {
-            jTokenizer.advance();
-            
-            if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.isOp()){
-
-                String opCmd = "";
-
-                switch (jTokenizer.symbol()){
-                    case '+':opCmd = "add";break;
-                    case '-':opCmd = "sub";break;
-                    case '*':opCmd = "call Math.multiply 2";break;
-                    case '/':opCmd = "call Math.divide 2";break;
-                    case '<':opCmd = "lt";break;
-                    case '>':opCmd = "gt";break;
-                    case '=':opCmd = "eq";break;
-                    case '&':opCmd = "and";break;
-                    case '|':opCmd = "or";break;
-                    default:error("Unknown op!");
-                }
+        if (receiver != Ast.NONE){
+            addArgument(call, Ast.NONE, receiver);
+            frameData[frameTop - 1] = receiver;
+        }
 
-                compileTerm();
+        if (nextIsSymbol(')')){
+            return closeCall();
+        }
 
-                vmWriter.writeCommand(opCmd,"","");
+        pushFrame(FRAME_EXPR, 0, Ast.NONE);
+        return STATE_TERM;
+    }
 
-            }
-            else {
-                jTokenizer.pointerBack();
-                break;
-            }
+    private void addArgument(int call, int last, int argument){
 
-        }while (true);
+        if (last == Ast.NONE){
+            ast.setFirst(call, argument);
+        }else {
+            ast.setNext(last, argument);
+        }
+    }
 
+    private int closeCall(){
+        requireSymbol(')');
+        operand = frameNodes[frameTop - 1];
+        frameTop--;
+
+        if (index != null){
+            checkCall(operand);
+        }
+        return STATE_REDUCE;
     }
 
-    private int compileExpressionList(){
-        int nArgs = 0;
-        jTokenizer.advance();
-        
-        if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == ')'){
-            jTokenizer.pointerBack();
+    private void checkCall(int call){
+
+        String name = ast.string(call);
+        int dot = name.indexOf('.');
+        String className = name.substring(0, dot);
+
+        if (index.getOutline(className) == null){
+            return;
         }
-        else {
-            nArgs = 1;
-            jTokenizer.pointerBack();
-            compileExpression();
-            do {
-                jTokenizer.advance();
-                if (jTokenizer.tokenType() == JackTokenizer.TYPE.SYMBOL && jTokenizer.symbol() == ','){
-                    compileExpression();
-                    nArgs++;
-                }
-                else {
-                    jTokenizer.pointerBack();
-                    break;
-                }
-            }while (true);
+
+        Signature signature = index.getSubroutine(className, name.substring(dot + 1));
+
+        if (signature == null){
+            throw new IllegalStateException("Unknown subroutine:" + name + " in " + currentFunction());
+        }
+
+        boolean hasReceiver = ast.op(call) == 1;
+        int nArgs = hasReceiver ? -1 : 0;
+
+        for (int arg = ast.first(call); arg != Ast.NONE; arg = ast.next(arg)){
+            nArgs++;
+        }
+
+        if (hasReceiver && signature.getKind() != JackTokenizer.KEYWORD.METHOD){
+            throw new IllegalStateException(signature.getKind().name().toLowerCase() + " " + name + " called as a method in " + currentFunction());
+        }
+        if (!hasReceiver && signature.getKind() == JackTokenizer.KEYWORD.METHOD){
+            throw new IllegalStateException("method " + name + " called without an object in " + currentFunction());
+        }
+        if (nArgs != signature.getParamCount()){
+            throw new IllegalStateException(name + " expects " + signature.getParamCount() + " arguments, got " + nArgs + " in " + currentFunction());
         }
-        return nArgs;
+    }
+
+    private void pushFrame(int kind, int data, int node){
+
+        if (frameTop == frameKinds.length){
+            int capacity = frameKinds.length * 2;
+            frameKinds = Arrays.copyOf(frameKinds, capacity);
+            frameData = Arrays.copyOf(frameData, capacity);
+            frameNodes = Arrays.copyOf(frameNodes, capacity);
+        }
+
+        frameKinds[frameTop] = kind;
+        frameData[frameTop] = data;
+        frameNodes[frameTop] = node;
+        frameTop++;
     }
 
     private void error(String val){
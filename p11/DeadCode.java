@@ -0,0 +1,134 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DeadCode {
+
+    private VmProgram program;
+    private int[] labels = new int[0];
+    private boolean[] referenced = new boolean[0];
+    private boolean[] reachable = new boolean[0];
+    private int[] work = new int[16];
+    private LinkedHashMap<String,Integer> removed = new LinkedHashMap<String, Integer>();
+
+    public int run(VmProgram program){
+
+        this.program = program;
+
+        if (labels.length < program.nameCount()){
+            labels = new int[program.nameCount()];
+            referenced = new boolean[program.nameCount()];
+            Arrays.fill(labels, VmProgram.NONE);
+        }
+        if (reachable.length < program.size()){
+            reachable = new boolean[program.size()];
+        }
+
+        int size = 0;
+        int start = 0;
+
+        while (start < program.size()){
+
+            int end = start + 1;
+            while (end < program.size() && program.opcode(end) != VmProgram.FUNCTION){
+                end++;
+            }
+
+            size = runFunction(start, end, size);
+            start = end;
+        }
+
+        int count = program.size() - size;
+        program.truncate(size);
+        return count;
+    }
+
+    private int runFunction(int start, int end, int size){
+
+        String function = program.opcode(start) == VmProgram.FUNCTION ? program.nameOf(program.name(start)) : "";
+
+        for (int i = start; i < end; i++){
+            reachable[i] = false;
+            if (program.opcode(i) == VmProgram.LABEL){
+                labels[program.name(i)] = i;
+            }
+        }
+
+        mark(start, end);
+
+        int kept = size;
+
+        for (int i = start; i < end; i++){
+
+            if (reachable[i] && (program.opcode(i) != VmProgram.LABEL || referenced[program.name(i)])){
+                program.copy(i, size++);
+            }
+        }
+
+        for (int i = start; i < end; i++){
+            if (program.opcode(i) == VmProgram.LABEL){
+                labels[program.name(i)] = VmProgram.NONE;
+                referenced[program.name(i)] = false;
+            }
+        }
+
+        int count = (end - start) - (size - kept);
+
+        if (count > 0){
+            Integer total = removed.get(function);
+            removed.put(function, total == null ? count : total + count);
+        }
+        return size;
+    }
+
+    private void mark(int start, int end){
+
+        int top = 0;
+        work[top++] = start;
+
+        while (top > 0){
+
+            int i = work[--top];
+
+            for (; i < end && !reachable[i]; i++){
+
+                reachable[i] = true;
+                int opcode = program.opcode(i);
+
+                if (opcode == VmProgram.GOTO || opcode == VmProgram.IF_GOTO){
+
+                    int target = labels[program.name(i)];
+                    referenced[program.name(i)] = true;
+
+                    if (target != VmProgram.NONE && target >= start && target < end){
+                        if (top == work.length){
+                            work = Arrays.copyOf(work, top * 2);
+                        }
+                        work[top++] = target;
+                    }
+                }
+
+                if (opcode == VmProgram.GOTO || opcode == VmProgram.RETURN){
+                    break;
+                }
+            }
+        }
+    }
+
+    public String report(){
+
+        if (removed.isEmpty()){
+            return "none";
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<String,Integer> function: removed.entrySet()){
+            if (sb.length() > 0){
+                sb.append(", ");
+            }
+            sb.append(function.getKey()).append(' ').append(function.getValue());
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,224 @@
+import java.util.HashMap;
+import java.util.List;
+
+public class Inliner {
+
+    public static final int MAX_BODY = 8;
+    public static final int GROWTH_PERCENT = 20;
+
+    private static final int TEMP_BASE = 3;
+    private static final int TEMP_SLOTS = 5;
+
+    private static final int POINTER = VMWriter.SEGMENT.POINTER.ordinal();
+    private static final int TEMP = VMWriter.SEGMENT.TEMP.ordinal();
+
+    private HashMap<String,VmProgram> bodies = new HashMap<String, VmProgram>();
+    private HashMap<String,Integer> localCounts = new HashMap<String, Integer>();
+    private int sites;
+    private int before;
+    private int after;
+
+    public void run(List<VmProgram> programs){
+
+        for (VmProgram program: programs){
+            collect(program);
+            before += program.size();
+        }
+
+        int budget = before * GROWTH_PERCENT / 100;
+
+        for (VmProgram program: programs){
+
+            VmProgram out = new VmProgram(program.size() + 16);
+            String caller = null;
+            boolean usesThis = false;
+
+            for (int i = 0; i < program.size(); i++){
+
+                int opcode = program.opcode(i);
+
+                if (opcode == VmProgram.FUNCTION){
+                    caller = program.nameOf(program.name(i));
+                    usesThis = usesThis(program, i + 1);
+                }
+
+                if (opcode == VmProgram.CALL){
+
+                    String callee = program.nameOf(program.name(i));
+                    int growth = inlineSize(callee, caller, program.operand(i), usesThis) - 1;
+
+                    if (growth < budget){
+                        writeInline(out, callee, program.operand(i), usesThis);
+                        budget -= growth;
+                        sites++;
+                        continue;
+                    }
+                }
+
+                out.add(opcode, program.segment(i), program.operand(i), program.name(i) == VmProgram.NONE ? VmProgram.NONE : out.intern(program.nameOf(program.name(i))));
+            }
+
+            program.clear();
+            program.append(out);
+            after += program.size();
+        }
+    }
+
+    private void collect(VmProgram program){
+
+        for (int i = 0; i < program.size(); i++){
+
+            if (program.opcode(i) != VmProgram.FUNCTION){
+                continue;
+            }
+
+            int end = i + 1;
+            boolean leaf = true;
+
+            while (end < program.size() && program.opcode(end) != VmProgram.FUNCTION && program.opcode(end) != VmProgram.RETURN){
+                int opcode = program.opcode(end);
+                leaf &= opcode == VmProgram.PUSH || opcode == VmProgram.POP || VmProgram.isArithmetic(opcode);
+                end++;
+            }
+
+            boolean single = end < program.size() && program.opcode(end) == VmProgram.RETURN
+                    && (end + 1 == program.size() || program.opcode(end + 1) == VmProgram.FUNCTION);
+
+            if (leaf && single && end - i - 1 <= MAX_BODY){
+
+                VmProgram body = new VmProgram(16);
+
+                for (int j = i + 1; j < end; j++){
+                    body.add(program.opcode(j), program.segment(j), program.operand(j), VmProgram.NONE);
+                }
+
+                String function = program.nameOf(program.name(i));
+                bodies.put(function, body);
+                localCounts.put(function, program.operand(i));
+            }
+        }
+    }
+
+    private boolean usesThis(VmProgram program, int start){
+
+        for (int i = start; i < program.size() && program.opcode(i) != VmProgram.FUNCTION; i++){
+
+            int segment = program.segment(i);
+
+            if (segment == VMWriter.SEGMENT.THIS.ordinal() || (program.opcode(i) == VmProgram.PUSH && segment == POINTER && program.operand(i) == 0)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int inlineSize(String callee, String caller, int nArgs, boolean usesThis){
+
+        VmProgram body = bodies.get(callee);
+
+        if (body == null || caller == null){
+            return Integer.MAX_VALUE;
+        }
+
+        int nLocals = localCounts.get(callee);
+        boolean save = usesThis && writesThis(body);
+
+        if (nArgs + nLocals + (save ? 1 : 0) > TEMP_SLOTS){
+            return Integer.MAX_VALUE;
+        }
+
+        boolean sameClass = callee.substring(0, callee.indexOf('.')).equals(caller.substring(0, caller.indexOf('.')));
+
+        for (int i = 0; i < body.size(); i++){
+
+            int segment = body.segment(i);
+
+            if ((segment == VMWriter.SEGMENT.STATIC.ordinal() && !sameClass)
+                    || (segment == VMWriter.SEGMENT.ARG.ordinal() && body.operand(i) >= nArgs)
+                    || (segment == TEMP && body.operand(i) >= TEMP_BASE)){
+                return Integer.MAX_VALUE;
+            }
+        }
+
+        int size = nArgs + 2 * nLocals + body.size() + (save ? 4 : 0);
+        return forwards(body, nArgs, nLocals) ? size - 2 : size;
+    }
+
+    private boolean writesThis(VmProgram body){
+
+        for (int i = 0; i < body.size(); i++){
+            if (body.opcode(i) == VmProgram.POP && body.segment(i) == POINTER && body.operand(i) == 0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean forwards(VmProgram body, int nArgs, int nLocals){
+
+        int arg = VMWriter.SEGMENT.ARG.ordinal();
+
+        if (nArgs != 1 || nLocals != 0 || body.size() == 0 || body.opcode(0) != VmProgram.PUSH || body.segment(0) != arg || body.operand(0) != 0){
+            return false;
+        }
+
+        for (int i = 1; i < body.size(); i++){
+            if (body.segment(i) == arg){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeInline(VmProgram out, String callee, int nArgs, boolean usesThis){
+
+        VmProgram body = bodies.get(callee);
+        int nLocals = localCounts.get(callee);
+        boolean save = usesThis && writesThis(body);
+        boolean forward = forwards(body, nArgs, nLocals);
+        int saveSlot = TEMP_BASE + nArgs + nLocals;
+
+        if (save){
+            out.add(VmProgram.PUSH, POINTER, 0, VmProgram.NONE);
+            out.add(VmProgram.POP, TEMP, saveSlot, VmProgram.NONE);
+        }
+
+        for (int arg = nArgs - (forward ? 2 : 1); arg >= 0; arg--){
+            out.add(VmProgram.POP, TEMP, TEMP_BASE + arg, VmProgram.NONE);
+        }
+
+        for (int local = 0; local < nLocals; local++){
+            out.add(VmProgram.PUSH, VMWriter.SEGMENT.CONST.ordinal(), 0, VmProgram.NONE);
+            out.add(VmProgram.POP, TEMP, TEMP_BASE + nArgs + local, VmProgram.NONE);
+        }
+
+        for (int i = forward ? 1 : 0; i < body.size(); i++){
+
+            int segment = body.segment(i);
+            int operand = body.operand(i);
+
+            if (segment == VMWriter.SEGMENT.ARG.ordinal()){
+                segment = TEMP;
+                operand += TEMP_BASE;
+            }
+            else if (segment == VMWriter.SEGMENT.LOCAL.ordinal()){
+                segment = TEMP;
+                operand += TEMP_BASE + nArgs;
+            }
+            out.add(body.opcode(i), segment, operand, VmProgram.NONE);
+        }
+
+        if (save){
+            out.add(VmProgram.PUSH, TEMP, saveSlot, VmProgram.NONE);
+            out.add(VmProgram.POP, POINTER, 0, VmProgram.NONE);
+        }
+    }
+
+    public int getSites(){
+        return sites;
+    }
+
+    public String report(){
+        return sites + " call sites, " + bodies.size() + " candidates, instructions " + before + " -> " + after;
+    }
+}
\ No newline at end of file
@@ -1,8 +1,11 @@
 import java.io.File;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 public class JackCompiler {
 
+    private static final String INDEX_FILE = ".jackindex";
+
     public static ArrayList<File> getJackFiles(File dir){
         File[] file = dir.listFiles();
         ArrayList<File> result = new ArrayList<File>();
@@ -19,11 +22,68 @@ public class JackCompiler {
     }
 
     public static void main(String[] args) {
-        if (args.length != 1){
-            System.out.println("Usage:java JackCompiler [filename|directory]");
+        boolean streaming = false;
+        boolean stats = false;
+        boolean outline = false;
+        boolean check = false;
+        boolean binary = false;
+        boolean stringPooling = true;
+        boolean shake = false;
+        ArrayList<String> roots = new ArrayList<String>();
+        int optimizationLevel = 0;
+        int threads = 1;
+        int argIndex = 0;
+
+        while (argIndex < args.length && args[argIndex].startsWith("-")){
+            if (args[argIndex].equals("-stream")){
+                streaming = true;
+            }
+            else if (args[argIndex].equals("-stats")){
+                stats = true;
+            }
+            else if (args[argIndex].equals("-outline")){
+                outline = true;
+            }
+            else if (args[argIndex].equals("-binary")){
+                binary = true;
+            }
+            else if (args[argIndex].equals("-O")){
+                optimizationLevel = 1;
+            }
+            else if (args[argIndex].startsWith("-O")){
+                optimizationLevel = Integer.parseInt(args[argIndex].substring(2));
+            }
+            else if (args[argIndex].equals("-nopool")){
+                stringPooling = false;
+            }
+            else if (args[argIndex].equals("-shake")){
+                shake = true;
+            }
+            else if (args[argIndex].equals("-root") && argIndex + 1 < args.length){
+                roots.add(args[++argIndex]);
+            }
+            else if (args[argIndex].equals("-check")){
+                check = true;
+            }
+            else if (args[argIndex].equals("-j") && argIndex + 1 < args.length){
+                threads = Integer.parseInt(args[++argIndex]);
+
+                if (threads < 1){
+                    throw new IllegalArgumentException("Thread count must be positive:" + threads);
+                }
+            }
+            else {
+                throw new IllegalArgumentException("Unknown option:" + args[argIndex]);
+            }
+            argIndex++;
+        }
+
+        if (args.length - argIndex != 1){
+            System.out.println("Usage:java JackCompiler [-stream] [-stats] [-outline] [-check] [-binary] [-O[level]] [-nopool] [-shake] [-root Class.function] [-j threads] [filename|directory]");
+            System.out.println("  -O3 and -shake are whole-program modes: every class is held in memory until all are compiled, then written out");
         }
         else {
-            String fInputName = args[0];
+            String fInputName = args[argIndex];
             File fInput = new File(fInputName);
             String fOutPath = "";
             File fOutput;
@@ -48,12 +108,137 @@ public class JackCompiler {
                 }
             }
 
+            if (shake && !fInput.isDirectory()){
+                throw new IllegalArgumentException("-shake needs a program directory");
+            }
+
+            if (!roots.contains("Main.main")){
+                roots.add(0, "Main.main");
+            }
+
+            ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+            boolean held = shake || optimizationLevel >= 3;
+            ArrayList<CompilationEngine> heldEngines = new ArrayList<CompilationEngine>();
+            ArrayList<String> heldPaths = new ArrayList<String>();
+            SignatureIndex index = null;
+            File programDir = fInput.isDirectory() ? fInput : fInput.getAbsoluteFile().getParentFile();
+            ArrayList<File> programFiles = fInput.isDirectory() ? jFiles : getJackFiles(programDir);
+            int staticBudget = StringPool.SEGMENT_SIZE;
+
+            if (check){
+                index = SignatureIndex.build(programFiles, pool, new File(programDir, INDEX_FILE));
+
+                if (stats){
+                    System.out.println("Indexed : " + index.getScannedCount() + " of " + programFiles.size() + " files scanned");
+                }
+            }
+
+            if (optimizationLevel >= 1 && stringPooling && !outline){
+
+                for (File f: programFiles){
+                    staticBudget -= CompilationEngine.staticCount(f, streaming);
+                }
+
+                if (staticBudget < 0){
+                    System.out.println("Static segment : " + (StringPool.SEGMENT_SIZE - staticBudget) + " static variables exceed " + StringPool.SEGMENT_SIZE + " words");
+                }
+            }
+
             for (File f: jFiles) {
-                fOutPath = f.getAbsolutePath().substring(0, f.getAbsolutePath().lastIndexOf(".")) + ".vm";
+
+                if (outline){
+                    System.out.print(CompilationEngine.outline(f, false));
+                    continue;
+                }
+
+                fOutPath = f.getAbsolutePath().substring(0, f.getAbsolutePath().lastIndexOf(".")) + (binary ? ".vmb" : ".vm");
                 fOutput = new File(fOutPath);
-                CompilationEngine compilationEngine = new CompilationEngine(f,fOutput);
+                CompilationEngine compilationEngine = new CompilationEngine(f,fOutput,streaming,pool);
+                compilationEngine.setSignatureIndex(index);
+                compilationEngine.setOptimizationLevel(optimizationLevel);
+                compilationEngine.setStringPooling(stringPooling);
+                compilationEngine.setStringPoolLimit(Math.max(staticBudget, 0));
+                compilationEngine.setHeld(held);
                 compilationEngine.compileClass();
-                System.out.println("File created : " + fOutPath);
+
+                if (compilationEngine.getStringPool() != null){
+                    staticBudget -= compilationEngine.getStringPool().size();
+
+                    if (compilationEngine.getStringPool().isTruncated()){
+                        System.out.println("Static segment : full, remaining string literals of " + f.getName() + " are not pooled");
+                    }
+                }
+
+                if (held){
+                    heldEngines.add(compilationEngine);
+                    heldPaths.add(fOutPath);
+                }else {
+                    System.out.println("File created : " + fOutPath);
+                }
+
+                if (stats){
+                    System.out.println("Tokens : " + compilationEngine.getTokenCount() + " visited : " + compilationEngine.getVisitCount());
+
+                    if (compilationEngine.getPeephole() != null){
+                        System.out.println("Peephole : " + compilationEngine.getPeephole().report());
+                        System.out.println("Dead code : " + compilationEngine.getDeadCode().report());
+                    }
+
+                    if (compilationEngine.getLocalSlots() != null){
+                        System.out.println("Local slots : " + compilationEngine.getLocalSlots().report());
+                    }
+
+                    if (compilationEngine.getStringPool() != null){
+                        System.out.println("Strings : " + compilationEngine.getStringPool().size() + " pooled");
+                    }
+                }
+            }
+
+            if (!heldEngines.isEmpty()){
+
+                ArrayList<VmProgram> programs = new ArrayList<VmProgram>();
+
+                for (CompilationEngine compilationEngine: heldEngines){
+                    programs.add(compilationEngine.getProgram());
+                }
+
+                if (optimizationLevel >= 3){
+                    Inliner inliner = new Inliner();
+                    inliner.run(programs);
+
+                    if (stats){
+                        System.out.println("Inlining : " + inliner.report());
+                    }
+                }
+
+                TreeShaker shaker = null;
+
+                if (shake){
+                    shaker = new TreeShaker(roots);
+
+                    for (VmProgram program: programs){
+                        shaker.add(program);
+                    }
+
+                    shaker.shake();
+
+                    for (VmProgram program: programs){
+                        shaker.remove(program);
+                    }
+                }
+
+                for (int i = 0; i < heldEngines.size(); i++){
+                    heldEngines.get(i).close();
+                    System.out.println("File created : " + heldPaths.get(i));
+                }
+
+                if (shaker != null){
+                    System.out.println("Tree shaking : " + shaker.report());
+                }
+            }
+
+            if (pool != null){
+                pool.shutdown();
             }
 
         }
@@ -0,0 +1,377 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+public class JackStress {
+
+    private static final int STATEMENTS = 100000;
+    private static final int DEPTH = 10000;
+    private static final int CLASSES = 40;
+    private static final int STATIC_CLASSES = 20;
+    private static final long MAX_STEPS = 50000000L;
+    private static final long STACK_SIZE = 512 * 1024;
+
+    private static final String[][] FLAGS = {
+            {"-O0"},
+            {"-O1"},
+            {"-O2"},
+            {"-O3"},
+            {"-O3", "-j", "3"},
+            {"-O2", "-stream"},
+            {"-O1", "-shake"}
+    };
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+
+        if (args.length > 1){
+            System.out.println("Usage:java JackStress [directory]");
+            return;
+        }
+
+        File root = new File(args.length == 1 ? args[0] : new File(System.getProperty("java.io.tmpdir"), "jackstress").getPath());
+
+        check(root, "statements", statements());
+        check(root, "parentheses", parentheses());
+        check(root, "unary", unary());
+        check(root, "multiply", multiply());
+        check(root, "conditions", conditions());
+        check(root, "comments", comments());
+        check(root, "classes", classes());
+        check(root, "strings", strings());
+        check(root, "statics", statics());
+
+        if (failures > 0){
+            throw new IllegalStateException(failures + " stress checks failed");
+        }
+        System.out.println("All stress checks passed");
+    }
+
+    private static void check(File root, String name, LinkedHashMap<String,String> sources){
+
+        File dir = new File(root, name);
+        write(dir, sources);
+        String expected = null;
+
+        for (String[] flags: FLAGS){
+
+            String[] args = new String[flags.length + 1];
+            System.arraycopy(flags, 0, args, 0, flags.length);
+            args[flags.length] = dir.getPath();
+
+            for (File f: listVm(dir)){
+                f.delete();
+            }
+
+            long start = System.nanoTime();
+            Throwable failure = compile(args);
+            long millis = (System.nanoTime() - start) / 1000000;
+            String label = name + " " + String.join(" ", flags);
+
+            if (failure != null){
+                failures++;
+                System.out.println(label + " : FAILED " + failure);
+                continue;
+            }
+
+            long bytes = 0;
+
+            for (File f: listVm(dir)){
+                bytes += f.length();
+            }
+
+            VmRunner runner = VmRunner.load(dir);
+            String output;
+
+            try {
+                output = runner.run(MAX_STEPS);
+            } catch (RuntimeException e) {
+                failures++;
+                System.out.println(label + " : FAILED " + e);
+                continue;
+            }
+
+            if (expected == null){
+                expected = output;
+            }
+
+            String result = output.equals(expected) ? "ok" : "MISMATCH";
+
+            if (!output.equals(expected)){
+                failures++;
+            }
+            System.out.println(label + " : " + result + ", " + millis + " ms, " + bytes + " bytes, " + runner.size() + " instructions, " + runner.getSteps() + " steps");
+        }
+    }
+
+    private static Throwable compile(final String[] args){
+
+        final Throwable[] failure = new Throwable[1];
+
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    JackCompiler.main(args);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        }, "JackStress", STACK_SIZE);
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+
+        try {
+            thread.start();
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compiling " + args[args.length - 1]);
+        } finally {
+            System.setOut(out);
+        }
+        return failure[0];
+    }
+
+    private static ArrayList<File> listVm(File dir){
+
+        ArrayList<File> result = new ArrayList<File>();
+        File[] files = dir.listFiles();
+
+        if (files == null) return result;
+
+        for (File f: files){
+
+            if (f.getName().endsWith(".vm") || f.getName().endsWith(".vmb")){
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    private static void write(File dir, LinkedHashMap<String,String> sources){
+
+        dir.mkdirs();
+
+        try {
+            for (String className: sources.keySet()){
+                Files.write(new File(dir, className + ".jack").toPath(), sources.get(className).getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static LinkedHashMap<String,String> main(String body, String locals){
+
+        LinkedHashMap<String,String> sources = new LinkedHashMap<String, String>();
+        sources.put("Main", "class Main {\n    function void main() {\n" + locals + body + "        return;\n    }\n}\n");
+        return sources;
+    }
+
+    private static LinkedHashMap<String,String> statements(){
+
+        StringBuilder body = new StringBuilder("        let s = 1;\n        let i = 0;\n");
+
+        for (int n = 0; n < STATEMENTS; n++){
+
+            switch (n % 5){
+                case 0:body.append("        let s = s + 3;\n");break;
+                case 1:body.append("        let s = s - (i & 7);\n");break;
+                case 2:body.append("        let i = i + 1;\n");break;
+                case 3:body.append("        if (s > 100) { let s = s - 50; } else { let s = s + i; }\n");break;
+                default:body.append("        while (s < 0) { let s = s + 1000; }\n");
+            }
+        }
+
+        body.append("        do Output.printInt(s);\n        do Output.printInt(i);\n");
+        return main(body.toString(), "        var int s, i;\n");
+    }
+
+    private static LinkedHashMap<String,String> parentheses(){
+
+        StringBuilder left = new StringBuilder();
+        StringBuilder right = new StringBuilder();
+
+        for (int n = 0; n < DEPTH; n++){
+            left.append('(');
+        }
+        left.append('x');
+
+        for (int n = 0; n < DEPTH; n++){
+            left.append(n % 2 == 0 ? " + " : " - ").append(n % 7).append(')');
+            right.append('(').append(n % 5).append(n % 2 == 0 ? " - " : " + ");
+        }
+        right.append('x');
+
+        for (int n = 0; n < DEPTH; n++){
+            right.append(')');
+        }
+
+        return main("        let x = 7;\n        let y = " + left + ";\n        do Output.printInt(y);\n        let y = " + right + ";\n        do Output.printInt(y);\n", "        var int x, y;\n");
+    }
+
+    private static LinkedHashMap<String,String> unary(){
+
+        StringBuilder chain = new StringBuilder();
+        StringBuilder nested = new StringBuilder();
+
+        for (int n = 0; n < DEPTH; n++){
+            chain.append(n % 3 == 0 ? '~' : '-');
+            nested.append(n % 2 == 0 ? "-(" : "~(");
+        }
+        chain.append('x');
+        nested.append('x');
+
+        for (int n = 0; n < DEPTH; n++){
+            nested.append(')');
+        }
+
+        return main("        let x = 5;\n        let y = " + chain + ";\n        do Output.printInt(y);\n        let y = " + nested + ";\n        do Output.printInt(y);\n", "        var int x, y;\n");
+    }
+
+    private static LinkedHashMap<String,String> multiply(){
+
+        StringBuilder doubling = new StringBuilder();
+        StringBuilder mixed = new StringBuilder();
+
+        for (int n = 0; n < DEPTH; n++){
+            doubling.append('(');
+            mixed.append(n % 2 == 0 ? "(3 * (" : "((");
+        }
+        doubling.append('x');
+        mixed.append('x');
+
+        for (int n = 0; n < DEPTH; n++){
+            doubling.append(" * 2)");
+            mixed.append(n % 2 == 0 ? " + 1))" : " * -5) - 1)");
+        }
+
+        return main("        let x = 3;\n        let y = " + doubling + ";\n        do Output.printInt(y);\n        let y = " + mixed + ";\n        do Output.printInt(y);\n"
+                + "        let y = (x + y) * 0;\n        do Output.printInt(y);\n", "        var int x, y;\n");
+    }
+
+    private static LinkedHashMap<String,String> conditions(){
+
+        String body = "        let x = 3;\n        let y = 0;\n"
+                + "        if (" + condition("x = 1", "x > 2") + ") { let y = y + 1; } else { let y = y + 2; }\n"
+                + "        if (" + condition("x = 1", "x") + ") { let y = y + 4; } else { let y = y + 8; }\n"
+                + "        if (" + leftCondition() + ") { let y = y + 16; }\n"
+                + "        let x = 40;\n"
+                + "        while ((x > 0) & " + condition("x < 99", "x < 100") + ") { let x = x - 1; let y = y + 1; }\n"
+                + "        do Output.printInt(x);\n        do Output.printInt(y);\n";
+        return main(body, "        var int x, y;\n");
+    }
+
+    private static String condition(String test, String last){
+
+        StringBuilder condition = new StringBuilder();
+
+        for (int n = 0; n < DEPTH; n++){
+            condition.append("((").append(test).append(") ").append(n % 2 == 0 ? "| " : "& ~");
+        }
+        condition.append('(').append(last).append(')');
+
+        for (int n = 0; n < DEPTH; n++){
+            condition.append(')');
+        }
+        return condition.toString();
+    }
+
+    private static String leftCondition(){
+
+        StringBuilder condition = new StringBuilder();
+
+        for (int n = 0; n < DEPTH; n++){
+            condition.append('(');
+        }
+        condition.append("x > 0");
+
+        for (int n = 0; n < DEPTH; n++){
+            condition.append(n % 2 == 0 ? " & (x < " : " | (x = ").append(n % 11).append("))");
+        }
+        return condition.toString();
+    }
+
+    private static LinkedHashMap<String,String> comments(){
+
+        StringBuilder body = new StringBuilder();
+
+        for (int n = 0; n < DEPTH; n++){
+            body.append("        /* block ").append(n).append(" // not a line comment */ let s = s + ").append(n % 9).append("; // step\n");
+        }
+
+        body.append("        let s = s");
+
+        for (int n = 0; n < DEPTH; n++){
+            body.append(" + 1 /* ").append(n).append(" */");
+        }
+
+        body.append(";\n        do Output.printInt(s);\n        do Output.printString(\"// /* kept */\");\n");
+        return main(body.toString(), "        var int s;\n");
+    }
+
+    private static LinkedHashMap<String,String> classes(){
+
+        LinkedHashMap<String,String> sources = new LinkedHashMap<String, String>();
+        StringBuilder locals = new StringBuilder("        var int s;\n");
+        StringBuilder body = new StringBuilder("        let s = 0;\n");
+
+        for (int n = 0; n < CLASSES; n++){
+            sources.put("C" + n, "class C" + n + " {\n    field int x;\n    static int count;\n"
+                    + "    constructor C" + n + " new(int v) { let x = v; let count = count + 1; return this; }\n"
+                    + "    method int getX() { return x; }\n"
+                    + "    method void setX(int v) { let x = v; return; }\n"
+                    + "    function int twice(int a) { return a + a; }\n"
+                    + "    function int count() { return count; }\n"
+                    + "    function int unused(int a) { return a * " + n + "; }\n}\n");
+            locals.append("        var C").append(n).append(" c").append(n).append(";\n");
+            body.append("        let c").append(n).append(" = C").append(n).append(".new(").append(n).append(");\n")
+                    .append("        do c").append(n).append(".setX(c").append(n).append(".getX() + C").append(n).append(".twice(").append(n).append("));\n")
+                    .append("        let s = s + c").append(n).append(".getX() + C").append(n).append(".count();\n");
+        }
+
+        body.append("        do Output.printInt(s);\n");
+        sources.putAll(main(body.toString(), locals.toString()));
+        return sources;
+    }
+
+    private static LinkedHashMap<String,String> strings(){
+
+        String body = "        let i = 0;\n        while (i < 50) {\n"
+                + "            if (i = 7) { do Output.printString(\"A\"); } else { do Output.printString(\"B\"); }\n"
+                + "            do Output.printString(\"pooled\");\n"
+                + "            let i = i + 1;\n        }\n"
+                + "        do Output.printString(\"B\");\n        do Output.printString(\"A\");\n";
+        return main(body, "        var int i;\n");
+    }
+
+    private static LinkedHashMap<String,String> statics(){
+
+        LinkedHashMap<String,String> sources = new LinkedHashMap<String, String>();
+        StringBuilder body = new StringBuilder();
+
+        for (int n = 0; n < STATIC_CLASSES; n++){
+
+            StringBuilder source = new StringBuilder("class S" + n + " {\n    static int a, b, c, d, e, f, g, h, i, j;\n    function void print() {\n        let j = " + n + ";\n");
+
+            for (int k = 0; k < 5; k++){
+                source.append("        do Output.printString(\"s").append(n).append('.').append(k).append("\");\n");
+            }
+
+            source.append("        do Output.printInt(j);\n        return;\n    }\n}\n");
+            sources.put("S" + n, source.toString());
+            body.append("        do S").append(n).append(".print();\n");
+        }
+
+        sources.putAll(main(body.toString(), ""));
+        return sources;
+    }
+}
\ No newline at end of file
@@ -1,11 +1,11 @@
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 public class JackTokenizer {
@@ -14,30 +14,57 @@ public class JackTokenizer {
 
     public static enum KEYWORD {CLASS, METHOD,FUNCTION,CONSTRUCTOR, INT,BOOLEAN,CHAR,VOID, VAR,STATIC,FIELD, LET,DO,IF,ELSE,WHILE, RETURN, TRUE,FALSE,NULL, THIS};
 
-    private String curToken;
-    private TYPE curTokenType;
-    private int pointer;
-    private ArrayList<String> tokens;
+    private static final byte C_OTHER = 0;
+    private static final byte C_SPACE = 1;
+    private static final byte C_LETTER = 2;
+    private static final byte C_DIGIT = 3;
+    private static final byte C_QUOTE = 4;
+    private static final byte C_SYMBOL = 5;
 
-    private static Pattern tokenPatterns;
-    private static String keyWordReg;
-    private static String symbolReg;
-    private static String intReg;
-    private static String strReg;
-    private static String idReg;
+    private static final int MAX_INT = 32767;
+    private static final int RING_CAPACITY = 4096;
+    private static final int LOOK_BACK = 4;
 
-    private static HashMap<String,KEYWORD> keyWordMap = new HashMap<String, KEYWORD>();
+    private ByteBuffer src;
+    private int cur;
+    private int pointer;
+    private int tokenCount;
+    private int visits;
+    private int[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private int[] values;
+    private TokenRing ring;
+    private boolean skipBodies;
+
+    private static TYPE[] types = TYPE.values();
+    private static KEYWORD[] keyWords = KEYWORD.values();
+    private static char[][] keyWordChars = new char[keyWords.length][];
+    private static int[] keyWordTable = new int[64];
+    private static byte[] charClass = new byte[128];
     private static HashSet<Character> opSet = new HashSet<Character>();
 
     static {
 
-        keyWordMap.put("class",KEYWORD.CLASS);keyWordMap.put("constructor",KEYWORD.CONSTRUCTOR);keyWordMap.put("function",KEYWORD.FUNCTION);
-        keyWordMap.put("method",KEYWORD.METHOD);keyWordMap.put("field",KEYWORD.FIELD);keyWordMap.put("static",KEYWORD.STATIC);
-        keyWordMap.put("var",KEYWORD.VAR);keyWordMap.put("int",KEYWORD.INT);keyWordMap.put("char",KEYWORD.CHAR);
-        keyWordMap.put("boolean",KEYWORD.BOOLEAN);keyWordMap.put("void",KEYWORD.VOID);keyWordMap.put("true",KEYWORD.TRUE);
-        keyWordMap.put("false",KEYWORD.FALSE);keyWordMap.put("null",KEYWORD.NULL);keyWordMap.put("this",KEYWORD.THIS);
-        keyWordMap.put("let",KEYWORD.LET);keyWordMap.put("do",KEYWORD.DO);keyWordMap.put("if",KEYWORD.IF);
-        keyWordMap.put("else",KEYWORD.ELSE);keyWordMap.put("while",KEYWORD.WHILE);keyWordMap.put("return",KEYWORD.RETURN);
+        for (char c = 'a'; c <= 'z'; c++) charClass[c] = C_LETTER;
+        for (char c = 'A'; c <= 'Z'; c++) charClass[c] = C_LETTER;
+        for (char c = '0'; c <= '9'; c++) charClass[c] = C_DIGIT;
+        for (char c: "{}()[].,;+-*/&|<>=~".toCharArray()) charClass[c] = C_SYMBOL;
+        charClass['_'] = C_LETTER;
+        charClass['"'] = C_QUOTE;
+        charClass[' '] = C_SPACE;charClass['\t'] = C_SPACE;charClass['\n'] = C_SPACE;charClass['\r'] = C_SPACE;charClass['\f'] = C_SPACE;
+
+        Arrays.fill(keyWordTable, -1);
+
+        for (KEYWORD k: keyWords){
+            char[] word = k.name().toLowerCase().toCharArray();
+            int slot = keyWordHash(word[0], word[word.length - 1], word.length);
+            if (keyWordTable[slot] != -1){
+                throw new IllegalStateException("Keyword hash collision:" + k);
+            }
+            keyWordChars[k.ordinal()] = word;
+            keyWordTable[slot] = k.ordinal();
+        }
 
         opSet.add('+');opSet.add('-');opSet.add('*');opSet.add('/');opSet.add('&');opSet.add('|');
         opSet.add('<');opSet.add('>');opSet.add('=');
@@ -46,105 +73,425 @@ public class JackTokenizer {
 
     public JackTokenizer(File inFile) {
 
-        try {
+        this(map(inFile));
+
+    }
+
+    public JackTokenizer(File inFile, boolean streaming) {
+
+        this(map(inFile), streaming);
+
+    }
+
+    public JackTokenizer(File inFile, boolean streaming, boolean skipBodies) {
+
+        this(map(inFile), streaming, skipBodies);
+
+    }
+
+    public JackTokenizer(ByteBuffer source) {
+
+        this(source, false);
+
+    }
+
+    public JackTokenizer(ByteBuffer source, boolean streaming) {
+
+        this(source, streaming, false);
+
+    }
+
+    public JackTokenizer(final ByteBuffer source, boolean streaming, boolean skipBodies) {
 
-            Scanner scan = new Scanner(inFile);
-            String preprocessed = "";
-            String line = "";
-            while(scan.hasNext()){
-                line = noComments(scan.nextLine()).trim();
+        cur = -1;
+        pointer = 0;
+        this.skipBodies = skipBodies;
 
-                if (line.length() > 0) {
-                    preprocessed += line + "\n";
+        if (streaming){
+
+            ring = new TokenRing(RING_CAPACITY);
+            src = source;
+
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        tokenize(source);
+                        ring.finish();
+                    } catch (RuntimeException e) {
+                        ring.fail(e);
+                    } catch (Throwable e) {
+                        ring.fail(new IllegalStateException(e));
+                    }
                 }
+            }, "JackTokenizer");
+            producer.setDaemon(true);
+            producer.start();
+
+        }else {
+            tokenize(source);
+        }
+
+    }
+
+    private JackTokenizer(JackTokenizer source, int from, int to) {
+
+        src = source.src;
+        kinds = source.kinds;
+        starts = source.starts;
+        ends = source.ends;
+        values = source.values;
+        cur = -1;
+        pointer = from;
+        tokenCount = to;
+
+    }
+
+    private static ByteBuffer map(File inFile){
+
+        try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        } catch (IOException e) {
+            e.printStackTrace();
+
+        }
+        return ByteBuffer.allocate(0);
+    }
+
+    private void tokenize(ByteBuffer src){
+
+        this.src = src;
+        tokenCount = 0;
+
+        if (ring == null){
+            kinds = new int[Math.max(16, src.limit() / 4)];
+            starts = new int[kinds.length];
+            ends = new int[kinds.length];
+            values = new int[kinds.length];
+        }
+
+        int length = src.limit();
+        int depth = 0;
+        int i = 0;
+
+        while (i < length){
+
+            int start = i;
+
+            switch (classOf(src.get(i))){
+                case C_SPACE:
+                    i++;
+                    break;
+                case C_LETTER:
+                    do {
+                        i++;
+                    }while (i < length && (classOf(src.get(i)) == C_LETTER || classOf(src.get(i)) == C_DIGIT));
+                    int keyWord = keyWordOf(src, start, i);
+                    if (keyWord != -1){
+                        addToken(TYPE.KEYWORD, start, i, keyWord);
+                    }else {
+                        addToken(TYPE.IDENTIFIER, start, i, 0);
+                    }
+                    break;
+                case C_DIGIT:
+                    int value = 0;
+                    do {
+                        value = value * 10 + (src.get(i) - '0');
+                        if (value > MAX_INT){
+                            throw new IllegalArgumentException("Integer constant out of range at offset " + start);
+                        }
+                        i++;
+                    }while (i < length && classOf(src.get(i)) == C_DIGIT);
+                    addToken(TYPE.INT_CONST, start, i, value);
+                    break;
+                case C_QUOTE:
+                    do {
+                        i++;
+                    }while (i < length && src.get(i) != '"' && src.get(i) != '\n');
+                    if (i == length || src.get(i) != '"'){
+                        throw new IllegalArgumentException("Unterminated string constant:" + text(start, i));
+                    }
+                    i++;
+                    addToken(TYPE.STRING_CONST, start, i, 0);
+                    break;
+                case C_SYMBOL:
+                    i++;
+                    if (src.get(start) == '/' && i < length && src.get(i) == '/'){
+                        while (i < length && src.get(i) != '\n') i++;
+                    }
+                    else if (src.get(start) == '/' && i < length && src.get(i) == '*'){
+                        i = skipBlockComment(src, i + 1);
+                    }
+                    else {
+                        addToken(TYPE.SYMBOL, start, i, src.get(start));
+
+                        if (src.get(start) == '{'){
+                            depth++;
+                            if (skipBodies && depth == 2){
+                                i = skipBody(src, i);
+                            }
+                        }
+                        else if (src.get(start) == '}'){
+                            depth--;
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown token:" + (char) (src.get(i) & 0xFF));
             }
+        }
+    }
 
-            preprocessed = noBlockComments(preprocessed).trim();
+    private static int skipBody(ByteBuffer src, int i){
 
-            initRegs();
-            Matcher m = tokenPatterns.matcher(preprocessed);
-            tokens = new ArrayList<String>();
-            pointer = 0;
+        int length = src.limit();
+        int depth = 1;
 
-            while (m.find()){
+        while (i < length){
 
-                tokens.add(m.group());
+            byte b = src.get(i);
 
+            if (b == '"'){
+                do {
+                    i++;
+                }while (i < length && src.get(i) != '"' && src.get(i) != '\n');
             }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            else if (b == '/' && i + 1 < length && src.get(i + 1) == '/'){
+                while (i < length && src.get(i) != '\n') i++;
+                continue;
+            }
+            else if (b == '/' && i + 1 < length && src.get(i + 1) == '*'){
+                i = skipBlockComment(src, i + 2);
+                continue;
+            }
+            else if (b == '{'){
+                depth++;
+            }
+            else if (b == '}' && --depth == 0){
+                return i;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipBlockComment(ByteBuffer src, int i){
+
+        int length = src.limit();
 
+        while (i + 1 < length){
+            if (src.get(i) == '*' && src.get(i + 1) == '/'){
+                return i + 2;
+            }
+            i++;
         }
-        curToken = "";
-        curTokenType = TYPE.NONE;
+        throw new IllegalArgumentException("Unterminated block comment");
+    }
 
+    private void addToken(TYPE type, int start, int end, int value){
+
+        if (ring != null){
+            ring.put(type.ordinal(), start, end, value);
+            tokenCount++;
+            return;
+        }
+
+        if (tokenCount == kinds.length){
+            int capacity = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        kinds[tokenCount] = type.ordinal();
+        starts[tokenCount] = start;
+        ends[tokenCount] = end;
+        values[tokenCount] = value;
+        tokenCount++;
+    }
+
+    private static int keyWordHash(int first, int last, int length){
+        return (first + last * 19 + length) & 63;
     }
 
-    private void initRegs(){
-        keyWordReg = "";
+    private static int keyWordOf(ByteBuffer src, int start, int end){
 
-        for (String seg: keyWordMap.keySet()){
+        int length = end - start;
+        int k = keyWordTable[keyWordHash(src.get(start), src.get(end - 1), length)];
 
-            keyWordReg += seg + "|";
+        if (k == -1 || keyWordChars[k].length != length){
+            return -1;
+        }
 
+        char[] word = keyWordChars[k];
+        for (int i = 0; i < length; i++){
+            if (word[i] != src.get(start + i)) return -1;
         }
+        return k;
+    }
+
+    private static byte classOf(byte b){
+        return b >= 0 ? charClass[b] : C_OTHER;
+    }
+
+    private String text(int start, int end){
 
-        symbolReg = "[\\&\\*\\+\\(\\)\\.\\/\\,\\-\\]\\;\\~\\}\\|\\{\\>\\=\\[\\<]";
-        intReg = "[0-9]+";
-        strReg = "\"[^\"\n]*\"";
-        idReg = "[a-zA-Z_]\\w*";
+        byte[] bytes = new byte[end - start];
+        ByteBuffer slice = src.duplicate();
+        slice.position(start);
+        slice.get(bytes);
 
-        tokenPatterns = Pattern.compile(idReg + "|" + keyWordReg + symbolReg + "|" + intReg + "|" + strReg);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private int kindAt(int index){
+        return ring != null ? ring.kind(index) : kinds[index];
+    }
+
+    private int startAt(int index){
+        return ring != null ? ring.start(index) : starts[index];
+    }
+
+    private int endAt(int index){
+        return ring != null ? ring.end(index) : ends[index];
+    }
+
+    private int valueAt(int index){
+        return ring != null ? ring.value(index) : values[index];
+    }
+
+    private boolean hasToken(int index){
+        if (ring != null){
+            return ring.has(index);
+        }
+        return index < tokenCount;
     }
 
     public boolean hasMoreTokens() {
-        return pointer < tokens.size();
+        return hasToken(pointer);
     }
 
-    public void advance(){
+    public TYPE peek(){
+        return peek(1);
+    }
 
-        if (hasMoreTokens()) {
-            curToken = tokens.get(pointer);
-            pointer++;
+    public TYPE peek(int k){
+
+        int index = pointer + k - 1;
+
+        if (!hasToken(index)){
+            return TYPE.NONE;
         }
-        else {
-            throw new IllegalStateException("No more tokens");
+        return types[kindAt(index)];
+    }
+
+    public char peekSymbol(int k){
+        if (peek(k) == TYPE.SYMBOL){
+            return (char) valueAt(pointer + k - 1);
         }
+        return 0;
+    }
 
-        if (curToken.matches(keyWordReg)){
-            curTokenType = TYPE.KEYWORD;
+    public KEYWORD peekKeyWord(int k){
+        if (peek(k) == TYPE.KEYWORD){
+            return keyWords[valueAt(pointer + k - 1)];
         }
-        else if (curToken.matches(symbolReg)){
-            curTokenType = TYPE.SYMBOL;
+        return null;
+    }
+
+    public void close(){
+
+        if (ring != null){
+            ring.cancel();
         }
-        else if (curToken.matches(intReg)){
-            curTokenType = TYPE.INT_CONST;
+    }
+
+    public JackTokenizer slice(int from, int to){
+        if (ring != null){
+            throw new IllegalStateException("Streaming tokenizer can't be sliced");
         }
-        else if (curToken.matches(strReg)){
-            curTokenType = TYPE.STRING_CONST;
+        return new JackTokenizer(this, from, to);
+    }
+
+    public int getPosition(){
+        return pointer;
+    }
+
+    public void skipBlock(){
+
+        do {
+            advance();
+
+            if (tokenType() == TYPE.SYMBOL && symbol() == '}'){
+                return;
+            }
+        }while (tokenType() != TYPE.SYMBOL || symbol() != '{');
+
+        skipBlockEnd();
+    }
+
+    public void skipBlockEnd(){
+
+        int depth = 1;
+
+        while (depth > 0){
+
+            advance();
+
+            if (tokenType() == TYPE.SYMBOL && symbol() == '{'){
+                depth++;
+            }
+            else if (tokenType() == TYPE.SYMBOL && symbol() == '}'){
+                depth--;
+            }
         }
-        else if (curToken.matches(idReg)){
-            curTokenType = TYPE.IDENTIFIER;
+    }
+
+    public int getTokenCount(){
+        return tokenCount;
+    }
+
+    public int getVisitCount(){
+        return visits;
+    }
+
+    public void advance(){
+
+        if (hasMoreTokens()) {
+            cur = pointer;
+            pointer++;
+            visits++;
+            if (ring != null){
+                ring.release(pointer - LOOK_BACK);
+            }
         }
         else {
-
-            throw new IllegalArgumentException("Unknown token:" + curToken);
+            throw new IllegalStateException("No more tokens");
         }
 
     }
 
     public String getCurrentToken() {
-        return curToken;
+        if (cur == -1){
+            return "";
+        }
+        return text(startAt(cur), endAt(cur));
     }
 
     public TYPE tokenType(){
 
-        return curTokenType;
+        if (cur == -1){
+            return TYPE.NONE;
+        }
+        return types[kindAt(cur)];
     }
 
     public KEYWORD keyWord(){
-        if (curTokenType == TYPE.KEYWORD){
-            return keyWordMap.get(curToken);
+        if (tokenType() == TYPE.KEYWORD){
+            return keyWords[valueAt(cur)];
         }
         else {
             throw new IllegalStateException("Not keyword");
@@ -153,8 +500,8 @@ public class JackTokenizer {
 
 
     public char symbol(){
-        if (curTokenType == TYPE.SYMBOL){
-            return curToken.charAt(0);
+        if (tokenType() == TYPE.SYMBOL){
+            return (char) valueAt(cur);
         }
         else{
             throw new IllegalStateException("Not Symbol");
@@ -162,17 +509,17 @@ public class JackTokenizer {
     }
 
     public String identifier(){
-        if (curTokenType == TYPE.IDENTIFIER){
-            return curToken;
+        if (tokenType() == TYPE.IDENTIFIER){
+            return getCurrentToken();
         }
         else {
-            throw new IllegalStateException("Current token is not an identifier! current type:" + curTokenType);
+            throw new IllegalStateException("Current token is not an identifier! current type:" + tokenType());
         }
     }
 
     public int intVal(){
-        if(curTokenType == TYPE.INT_CONST){
-            return Integer.parseInt(curToken);
+        if(tokenType() == TYPE.INT_CONST){
+            return valueAt(cur);
         }
         else {
             throw new IllegalStateException("Current token is not an integer constant!");
@@ -180,59 +527,19 @@ public class JackTokenizer {
     }
 
     public String stringVal(){
-        if (curTokenType == TYPE.STRING_CONST){
-            return curToken.substring(1, curToken.length() - 1);
+        if (tokenType() == TYPE.STRING_CONST){
+            return text(startAt(cur) + 1, endAt(cur) - 1);
         }
         else {
             throw new IllegalStateException("Current token is not a string constant!");
         }
     }
 
-    public void pointerBack(){
-        if (pointer > 0) {
-            pointer--;
-            curToken = tokens.get(pointer);
-        }
-    }
-
     public boolean isOp(){
-        return opSet.contains(symbol());
+        return isOp(symbol());
     }
 
-    public static String noComments(String strIn){
-        int position = strIn.indexOf("//");
-        if (position != -1){
-            strIn = strIn.substring(0, position);
-        }
-        return strIn;
-    }
-
-
-    public static String noSpaces(String strIn){
-        String result = "";
-        if (strIn.length() != 0){
-            String[] segs = strIn.split(" ");
-            for (String s: segs){
-                result += s;
-            }
-        }
-        return result;
-    }
-
-    public static String noBlockComments(String strIn){
-        int startIndex = strIn.indexOf("/*");
-        if (startIndex == -1) return strIn;
-        String result = strIn;
-        int endIndex = strIn.indexOf("*/");
-        
-        while(startIndex != -1){
-            if (endIndex == -1){
-                return strIn.substring(0,startIndex - 1);
-            }
-            result = result.substring(0,startIndex) + result.substring(endIndex + 2);
-            startIndex = result.indexOf("/*");
-            endIndex = result.indexOf("*/");
-        }
-        return result;
+    public static boolean isOp(char symbol){
+        return opSet.contains(symbol);
     }
 }
\ No newline at end of file
@@ -0,0 +1,197 @@
+import java.util.Arrays;
+
+public class LocalSlots {
+
+    public static final int MAX_LOCALS = 64;
+
+    private static final int LOCAL = VMWriter.SEGMENT.LOCAL.ordinal();
+    private static final int TEMP = VMWriter.SEGMENT.TEMP.ordinal();
+
+    private VmProgram program;
+    private int[] labels = new int[0];
+    private long[] liveIn = new long[0];
+    private long[] interference = new long[MAX_LOCALS];
+    private int[] colors = new int[MAX_LOCALS];
+    private int before;
+    private int after;
+    private int deadStores;
+
+    public void run(VmProgram program){
+
+        this.program = program;
+
+        if (labels.length < program.nameCount()){
+            labels = new int[program.nameCount()];
+        }
+
+        for (int start = 0; start < program.size(); start++){
+
+            if (program.opcode(start) != VmProgram.FUNCTION){
+                continue;
+            }
+
+            int end = start + 1;
+            while (end < program.size() && program.opcode(end) != VmProgram.FUNCTION){
+                end++;
+            }
+
+            if (program.operand(start) > 0 && program.operand(start) <= MAX_LOCALS){
+                runFunction(start, end);
+            }
+            start = end - 1;
+        }
+    }
+
+    private void runFunction(int start, int end){
+
+        int nLocals = program.operand(start);
+        int first = start + 1;
+        boolean loops = false;
+
+        if (liveIn.length < end - first){
+            liveIn = new long[(end - first) * 2];
+        }
+        Arrays.fill(liveIn, 0, end - first, 0);
+
+        for (int i = first; i < end; i++){
+
+            int opcode = program.opcode(i);
+
+            if (opcode == VmProgram.LABEL){
+                labels[program.name(i)] = i;
+            }
+            else if ((opcode == VmProgram.GOTO || opcode == VmProgram.IF_GOTO) && labels[program.name(i)] >= first && labels[program.name(i)] < i){
+                loops = true;
+            }
+        }
+
+        boolean changed;
+
+        do {
+            changed = solve(first, end);
+        }while (changed && loops);
+
+        long used = 0;
+        long entry = first < end ? liveIn[0] : 0;
+
+        for (int local = 0; local < nLocals; local++){
+            interference[local] = (entry & 1L << local) != 0 ? entry & ~(1L << local) : 0;
+        }
+
+        for (int i = first; i < end; i++){
+
+            if (!isLocal(i)){
+                continue;
+            }
+
+            int local = program.operand(i);
+
+            if (program.opcode(i) == VmProgram.POP){
+
+                long live = liveOut(i, first, end);
+
+                if ((live & 1L << local) == 0){
+                    program.set(i, VmProgram.POP, TEMP, 0, VmProgram.NONE);
+                    deadStores++;
+                    continue;
+                }
+
+                live &= ~(1L << local);
+                interference[local] |= live;
+
+                for (long bits = live; bits != 0; bits &= bits - 1){
+                    interference[Long.numberOfTrailingZeros(bits)] |= 1L << local;
+                }
+            }
+            used |= 1L << local;
+        }
+
+        int slots = 0;
+
+        for (int local = 0; local < nLocals; local++){
+
+            colors[local] = -1;
+
+            if ((used & 1L << local) == 0){
+                continue;
+            }
+
+            long taken = 0;
+
+            for (long bits = interference[local]; bits != 0; bits &= bits - 1){
+                int other = Long.numberOfTrailingZeros(bits);
+                if (other < local && colors[other] != -1){
+                    taken |= 1L << colors[other];
+                }
+            }
+
+            colors[local] = Long.numberOfTrailingZeros(~taken);
+            slots = Math.max(slots, colors[local] + 1);
+        }
+
+        for (int i = first; i < end; i++){
+            if (isLocal(i)){
+                program.set(i, program.opcode(i), LOCAL, colors[program.operand(i)], VmProgram.NONE);
+            }
+        }
+
+        program.set(start, VmProgram.FUNCTION, program.segment(start), slots, program.name(start));
+        before += nLocals;
+        after += slots;
+    }
+
+    private boolean solve(int first, int end){
+
+        boolean changed = false;
+
+        for (int i = end - 1; i >= first; i--){
+
+            long live = liveOut(i, first, end);
+
+            if (isLocal(i)){
+                if (program.opcode(i) == VmProgram.POP){
+                    live &= ~(1L << program.operand(i));
+                }else {
+                    live |= 1L << program.operand(i);
+                }
+            }
+
+            if (liveIn[i - first] != live){
+                liveIn[i - first] = live;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean isLocal(int i){
+        int opcode = program.opcode(i);
+        return (opcode == VmProgram.PUSH || opcode == VmProgram.POP) && program.segment(i) == LOCAL;
+    }
+
+    private long liveOut(int i, int first, int end){
+
+        int opcode = program.opcode(i);
+        long live = 0;
+
+        if (opcode == VmProgram.RETURN){
+            return 0;
+        }
+
+        if (opcode == VmProgram.GOTO || opcode == VmProgram.IF_GOTO){
+            int target = labels[program.name(i)];
+            if (target >= first && target < end){
+                live = liveIn[target - first];
+            }
+        }
+
+        if (opcode != VmProgram.GOTO && i + 1 < end){
+            live |= liveIn[i + 1 - first];
+        }
+        return live;
+    }
+
+    public String report(){
+        return "locals " + before + " -> " + after + ", dead stores " + deadStores;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,125 @@
+public class Peephole {
+
+    public static final int NOT_NOT = 0;
+    public static final int TRUE_BRANCH = 1;
+    public static final int FALSE_BRANCH = 2;
+    public static final int GOTO_NEXT = 3;
+    public static final int NOT_BRANCH_OVER_GOTO = 4;
+    public static final int PUSH_POP = 5;
+
+    public static final String[] RULE_NAMES = {"not-not", "true-branch", "false-branch", "goto-next", "not-branch-over-goto", "push-pop"};
+
+    private static final int[] WINDOWS = {2, 3, 2, 2, 5, 2};
+
+    private VmProgram program;
+    private int[] removed = new int[RULE_NAMES.length];
+
+    public void run(VmProgram program){
+
+        this.program = program;
+        int size = 0;
+
+        for (int i = 0; i < program.size(); i++){
+            program.copy(i, size++);
+            size = reduce(size);
+        }
+
+        program.truncate(size);
+    }
+
+    private int reduce(int size){
+
+        int rule = 0;
+
+        while (rule < RULE_NAMES.length){
+
+            if (size >= WINDOWS[rule] && match(rule, size - 1)){
+                int rewritten = rewrite(rule, size - 1);
+                removed[rule] += size - rewritten;
+                size = rewritten;
+                rule = 0;
+            }else {
+                rule++;
+            }
+        }
+        return size;
+    }
+
+    private boolean match(int rule, int t){
+
+        switch (rule){
+            case NOT_NOT:
+                return is(t, VmProgram.NOT) && is(t - 1, VmProgram.NOT);
+            case TRUE_BRANCH:
+                return is(t, VmProgram.IF_GOTO) && is(t - 1, VmProgram.NOT) && isZero(t - 2);
+            case FALSE_BRANCH:
+                return is(t, VmProgram.IF_GOTO) && isZero(t - 1);
+            case GOTO_NEXT:
+                int j = labelsBefore(t);
+                return is(t, VmProgram.LABEL) && j >= 0 && is(j, VmProgram.GOTO) && program.name(j) == program.name(t);
+            case NOT_BRANCH_OVER_GOTO:
+                return is(t, VmProgram.LABEL) && is(t - 1, VmProgram.GOTO) && is(t - 2, VmProgram.IF_GOTO) && is(t - 3, VmProgram.NOT)
+                        && isComparison(t - 4) && program.name(t - 2) == program.name(t);
+            case PUSH_POP:
+                return is(t, VmProgram.POP) && is(t - 1, VmProgram.PUSH)
+                        && program.segment(t) == program.segment(t - 1) && program.operand(t) == program.operand(t - 1);
+            default:
+                throw new IllegalStateException("Unknown rule:" + rule);
+        }
+    }
+
+    private int rewrite(int rule, int t){
+
+        switch (rule){
+            case TRUE_BRANCH:
+                program.set(t - 2, VmProgram.GOTO, VmProgram.NONE, 0, program.name(t));
+                return t - 1;
+            case GOTO_NEXT:
+                for (int i = labelsBefore(t); i < t; i++){
+                    program.copy(i + 1, i);
+                }
+                return t;
+            case NOT_BRANCH_OVER_GOTO:
+                program.set(t - 3, VmProgram.IF_GOTO, VmProgram.NONE, 0, program.name(t - 1));
+                program.copy(t, t - 2);
+                return t - 1;
+            default:
+                return t + 1 - WINDOWS[rule];
+        }
+    }
+
+    private int labelsBefore(int t){
+
+        int i = t - 1;
+
+        while (i >= 0 && is(i, VmProgram.LABEL)){
+            i--;
+        }
+        return i;
+    }
+
+    private boolean is(int i, int opcode){
+        return program.opcode(i) == opcode;
+    }
+
+    private boolean isComparison(int i){
+        return is(i, VmProgram.EQ) || is(i, VmProgram.LT) || is(i, VmProgram.GT);
+    }
+
+    private boolean isZero(int i){
+        return program.opcode(i) == VmProgram.PUSH && program.segment(i) == VMWriter.SEGMENT.CONST.ordinal() && program.operand(i) == 0;
+    }
+
+    public String report(){
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int rule = 0; rule < RULE_NAMES.length; rule++){
+            if (rule > 0){
+                sb.append(", ");
+            }
+            sb.append(RULE_NAMES[rule]).append(' ').append(removed[rule]);
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
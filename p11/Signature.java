@@ -0,0 +1,70 @@
+public class Signature {
+
+    private JackTokenizer.KEYWORD kind;
+    private String returnType;
+    private String name;
+    private String[] paramTypes;
+    private String[] paramNames;
+    private int localCount;
+
+    public Signature(JackTokenizer.KEYWORD kind, String returnType, String name, String[] paramTypes, String[] paramNames) {
+        this.kind = kind;
+        this.returnType = returnType;
+        this.name = name;
+        this.paramTypes = paramTypes;
+        this.paramNames = paramNames;
+        this.localCount = -1;
+    }
+
+    public JackTokenizer.KEYWORD getKind() {
+        return kind;
+    }
+
+    public String getReturnType() {
+        return returnType;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getParamCount() {
+        return paramTypes.length;
+    }
+
+    public String getParamType(int i) {
+        return paramTypes[i];
+    }
+
+    public String getParamName(int i) {
+        return paramNames[i];
+    }
+
+    public int getLocalCount() {
+        return localCount;
+    }
+
+    public void setLocalCount(int localCount) {
+        this.localCount = localCount;
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(kind.name().toLowerCase()).append(' ').append(returnType).append(' ').append(name).append('(');
+
+        for (int i = 0; i < paramTypes.length; i++){
+            if (i > 0){
+                sb.append(", ");
+            }
+            sb.append(paramTypes[i]).append(' ').append(paramNames[i]);
+        }
+        sb.append(')');
+
+        if (localCount != -1){
+            sb.append(" locals ").append(localCount);
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,283 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+public class SignatureIndex {
+
+    private static final int MAGIC = 0x4A534958;
+    private static final int VERSION = 1;
+
+    private static final String[] OS_CLASSES = {
+            "class Math {" +
+            " function void init() {} function int abs(int x) {} function int multiply(int x, int y) {}" +
+            " function int divide(int x, int y) {} function int min(int x, int y) {} function int max(int x, int y) {}" +
+            " function int sqrt(int x) {} }",
+            "class String {" +
+            " constructor String new(int maxLength) {} method void dispose() {} method int length() {}" +
+            " method char charAt(int j) {} method void setCharAt(int j, char c) {} method String appendChar(char c) {}" +
+            " method void eraseLastChar() {} method int intValue() {} method void setInt(int val) {}" +
+            " function char backSpace() {} function char doubleQuote() {} function char newLine() {} }",
+            "class Array {" +
+            " function Array new(int size) {} method void dispose() {} }",
+            "class Output {" +
+            " function void init() {} function void moveCursor(int i, int j) {} function void printChar(char c) {}" +
+            " function void printString(String s) {} function void printInt(int i) {} function void println() {}" +
+            " function void backSpace() {} }",
+            "class Screen {" +
+            " function void init() {} function void clearScreen() {} function void setColor(boolean b) {}" +
+            " function void drawPixel(int x, int y) {} function void drawLine(int x1, int y1, int x2, int y2) {}" +
+            " function void drawRectangle(int x1, int y1, int x2, int y2) {} function void drawCircle(int x, int y, int r) {} }",
+            "class Keyboard {" +
+            " function void init() {} function char keyPressed() {} function char readChar() {}" +
+            " function String readLine(String message) {} function int readInt(String message) {} }",
+            "class Memory {" +
+            " function void init() {} function int peek(int address) {} function void poke(int address, int value) {}" +
+            " function Array alloc(int size) {} function void deAlloc(Array o) {} }",
+            "class Sys {" +
+            " function void init() {} function void halt() {} function void error(int errorCode) {} function void wait(int duration) {} }"
+    };
+
+    private static Map<String,ClassOutline> osClasses = new HashMap<String, ClassOutline>();
+
+    private Map<String,ClassOutline> classes;
+    private int scanned;
+
+    static {
+
+        for (String classSource: OS_CLASSES){
+            ClassOutline outline = CompilationEngine.outline(ByteBuffer.wrap(classSource.getBytes(StandardCharsets.US_ASCII)));
+            osClasses.put(outline.getName(), outline);
+        }
+    }
+
+    private SignatureIndex(Map<String,ClassOutline> classes, int scanned) {
+        this.classes = Collections.unmodifiableMap(classes);
+        this.scanned = scanned;
+    }
+
+    public static SignatureIndex build(List<File> files, ForkJoinPool pool, File cacheFile){
+
+        HashMap<String,Long> cachedKeys = new HashMap<String, Long>();
+        HashMap<String,ClassOutline> cachedOutlines = new HashMap<String, ClassOutline>();
+
+        if (cacheFile != null && cacheFile.isFile()){
+            load(cacheFile, cachedKeys, cachedOutlines);
+        }
+
+        long[] keys = new long[files.size()];
+        ClassOutline[] outlines = new ClassOutline[files.size()];
+        ArrayList<Callable<ClassOutline>> tasks = new ArrayList<Callable<ClassOutline>>();
+        ArrayList<Integer> taskFiles = new ArrayList<Integer>();
+
+        for (int i = 0; i < files.size(); i++){
+
+            final File file = files.get(i);
+            keys[i] = contentKey(file);
+
+            Long cached = cachedKeys.get(file.getName());
+
+            if (cached != null && cached == keys[i]){
+                outlines[i] = cachedOutlines.get(file.getName());
+                continue;
+            }
+
+            taskFiles.add(i);
+            tasks.add(new Callable<ClassOutline>() {
+                @Override
+                public ClassOutline call() {
+                    return CompilationEngine.outline(file, false);
+                }
+            });
+        }
+
+        try {
+            List<Future<ClassOutline>> results = (pool != null ? pool : ForkJoinPool.commonPool()).invokeAll(tasks);
+
+            for (int i = 0; i < results.size(); i++){
+                outlines[taskFiles.get(i)] = results.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while indexing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+
+        HashMap<String,ClassOutline> classes = new HashMap<String, ClassOutline>(osClasses);
+        HashMap<String,ClassOutline> programClasses = new HashMap<String, ClassOutline>();
+
+        for (ClassOutline outline: outlines){
+
+            if (programClasses.put(outline.getName(), outline) != null){
+                throw new IllegalStateException("Duplicate class:" + outline.getName());
+            }
+            classes.put(outline.getName(), outline);
+        }
+
+        if (cacheFile != null && !tasks.isEmpty()){
+            save(cacheFile, files, keys, outlines);
+        }
+
+        return new SignatureIndex(classes, tasks.size());
+    }
+
+    private static long contentKey(File file){
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            CRC32 crc = new CRC32();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return channel.size() << 32 | crc.getValue();
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return -1;
+    }
+
+    private static void load(File cacheFile, Map<String,Long> keys, Map<String,ClassOutline> outlines){
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION){
+                return;
+            }
+
+            int fileCount = in.readInt();
+
+            for (int i = 0; i < fileCount; i++){
+                String fileName = in.readUTF();
+                keys.put(fileName, in.readLong());
+                outlines.put(fileName, readOutline(in));
+            }
+
+        } catch (IOException e) {
+            keys.clear();
+            outlines.clear();
+        }
+    }
+
+    private static void save(File cacheFile, List<File> files, long[] keys, ClassOutline[] outlines){
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile)))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(files.size());
+
+            for (int i = 0; i < files.size(); i++){
+                out.writeUTF(files.get(i).getName());
+                out.writeLong(keys[i]);
+                writeOutline(out, outlines[i]);
+            }
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static ClassOutline readOutline(DataInputStream in) throws IOException {
+
+        Symbol.KIND[] kinds = Symbol.KIND.values();
+        JackTokenizer.KEYWORD[] keyWords = JackTokenizer.KEYWORD.values();
+
+        ClassOutline outline = new ClassOutline(in.readUTF());
+        int varCount = in.readUnsignedShort();
+
+        for (int i = 0; i < varCount; i++){
+            Symbol.KIND kind = kinds[in.readByte()];
+            String type = in.readUTF();
+            int index = in.readUnsignedShort();
+            outline.addVariable(in.readUTF(), new Symbol(type, kind, index));
+        }
+
+        int subroutineCount = in.readUnsignedShort();
+
+        for (int i = 0; i < subroutineCount; i++){
+            JackTokenizer.KEYWORD kind = keyWords[in.readByte()];
+            String returnType = in.readUTF();
+            String name = in.readUTF();
+            String[] paramTypes = new String[in.readUnsignedShort()];
+            String[] paramNames = new String[paramTypes.length];
+
+            for (int p = 0; p < paramTypes.length; p++){
+                paramTypes[p] = in.readUTF();
+                paramNames[p] = in.readUTF();
+            }
+            outline.addSubroutine(new Signature(kind, returnType, name, paramTypes, paramNames));
+        }
+        return outline;
+    }
+
+    private static void writeOutline(DataOutputStream out, ClassOutline outline) throws IOException {
+
+        out.writeUTF(outline.getName());
+        out.writeShort(outline.getVariables().size());
+
+        for (Map.Entry<String,Symbol> variable: outline.getVariables().entrySet()){
+            Symbol symbol = variable.getValue();
+            out.writeByte(symbol.getKind().ordinal());
+            out.writeUTF(symbol.getType());
+            out.writeShort(symbol.getIndex());
+            out.writeUTF(variable.getKey());
+        }
+
+        out.writeShort(outline.getSubroutines().size());
+
+        for (Signature signature: outline.getSubroutines()){
+            out.writeByte(signature.getKind().ordinal());
+            out.writeUTF(signature.getReturnType());
+            out.writeUTF(signature.getName());
+            out.writeShort(signature.getParamCount());
+
+            for (int p = 0; p < signature.getParamCount(); p++){
+                out.writeUTF(signature.getParamType(p));
+                out.writeUTF(signature.getParamName(p));
+            }
+        }
+    }
+
+    public ClassOutline getOutline(String className){
+        return classes.get(className);
+    }
+
+    public Signature getSubroutine(String className, String subroutineName){
+
+        ClassOutline outline = classes.get(className);
+
+        if (outline == null){
+            return null;
+        }
+        return outline.getSubroutine(subroutineName);
+    }
+
+    public Map<String,ClassOutline> getClasses(){
+        return classes;
+    }
+
+    public int getScannedCount(){
+        return scanned;
+    }
+}
\ No newline at end of file
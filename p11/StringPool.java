@@ -0,0 +1,45 @@
+import java.util.HashMap;
+
+public class StringPool {
+
+    public static final int MAX_SLOTS = 16;
+    public static final int SEGMENT_SIZE = 240;
+
+    private int base;
+    private int limit;
+    private boolean truncated;
+    private HashMap<String,Integer> slots = new HashMap<String, Integer>();
+
+    public StringPool(int base) {
+        this(base, MAX_SLOTS);
+    }
+
+    public StringPool(int base, int limit) {
+        this.base = base;
+        this.limit = Math.min(limit, MAX_SLOTS);
+    }
+
+    public synchronized int slot(String literal){
+
+        Integer slot = slots.get(literal);
+
+        if (slot == null){
+
+            if (slots.size() >= limit){
+                truncated |= limit < MAX_SLOTS;
+                return -1;
+            }
+            slot = base + slots.size();
+            slots.put(literal, slot);
+        }
+        return slot;
+    }
+
+    public synchronized int size(){
+        return slots.size();
+    }
+
+    public synchronized boolean isTruncated(){
+        return truncated;
+    }
+}
\ No newline at end of file
@@ -1,30 +1,30 @@
 import java.util.HashMap;
-import java.util.Map;
 
 public class SymbolTable {
 
     private HashMap<String,Symbol> classSymbols;
     private HashMap<String,Symbol> subroutineSymbols;
-    private HashMap<Symbol.KIND,Integer> indices;
+    private int[] indices;
 
 
     public SymbolTable() {
         classSymbols = new HashMap<String, Symbol>();
         subroutineSymbols = new HashMap<String, Symbol>();
+        indices = new int[Symbol.KIND.values().length];
+    }
 
-        indices = new HashMap<Symbol.KIND, Integer>();
-        indices.put(Symbol.KIND.ARG,0);
-        indices.put(Symbol.KIND.FIELD,0);
-        indices.put(Symbol.KIND.STATIC,0);
-        indices.put(Symbol.KIND.VAR,0);
-
+    public SymbolTable(SymbolTable classScope) {
+        classSymbols = classScope.classSymbols;
+        subroutineSymbols = new HashMap<String, Symbol>();
+        indices = classScope.indices.clone();
+        startSubroutine();
     }
 
 
     public void startSubroutine(){
         subroutineSymbols.clear();
-        indices.put(Symbol.KIND.VAR,0);
-        indices.put(Symbol.KIND.ARG,0);
+        indices[Symbol.KIND.VAR.ordinal()] = 0;
+        indices[Symbol.KIND.ARG.ordinal()] = 0;
     }
 
 
@@ -32,29 +32,23 @@ public class SymbolTable {
 
         if (kind == Symbol.KIND.ARG || kind == Symbol.KIND.VAR){
 
-            int index = indices.get(kind);
-            Symbol symbol = new Symbol(type,kind,index);
-            indices.put(kind,index+1);
-            subroutineSymbols.put(name,symbol);
+            subroutineSymbols.put(name,new Symbol(type,kind,indices[kind.ordinal()]++));
 
         }else if(kind == Symbol.KIND.STATIC || kind == Symbol.KIND.FIELD){
 
-            int index = indices.get(kind);
-            Symbol symbol = new Symbol(type,kind,index);
-            indices.put(kind,index+1);
-            classSymbols.put(name,symbol);
+            classSymbols.put(name,new Symbol(type,kind,indices[kind.ordinal()]++));
 
         }
 
     }
 
     public int varCount(Symbol.KIND kind){
-        return indices.get(kind);
+        return indices[kind.ordinal()];
     }
 
     public Symbol.KIND kindOf(String name){
 
-        Symbol symbol = lookUp(name);
+        Symbol symbol = resolve(name);
 
         if (symbol != null) return symbol.getKind();
 
@@ -63,7 +57,7 @@ public class SymbolTable {
 
     public String typeOf(String name){
 
-        Symbol symbol = lookUp(name);
+        Symbol symbol = resolve(name);
 
         if (symbol != null) return symbol.getType();
 
@@ -72,23 +66,21 @@ public class SymbolTable {
 
     public int indexOf(String name){
 
-        Symbol symbol = lookUp(name);
+        Symbol symbol = resolve(name);
 
         if (symbol != null) return symbol.getIndex();
 
         return -1;
     }
 
-    private Symbol lookUp(String name){
+    public Symbol resolve(String name){
 
-        if (classSymbols.get(name) != null){
-            return classSymbols.get(name);
-        }else if (subroutineSymbols.get(name) != null){
-            return subroutineSymbols.get(name);
-        }else {
-            return null;
-        }
+        Symbol symbol = subroutineSymbols.get(name);
 
+        if (symbol != null){
+            return symbol;
+        }
+        return classSymbols.get(name);
     }
 
 }
\ No newline at end of file
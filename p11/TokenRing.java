@@ -0,0 +1,142 @@
+import java.util.concurrent.locks.LockSupport;
+
+public class TokenRing {
+
+    private static final int SPINS = 256;
+
+    private int[] kinds;
+    private int[] starts;
+    private int[] ends;
+    private int[] values;
+    private int mask;
+
+    private volatile int published;
+    private volatile int released;
+    private volatile boolean finished;
+    private volatile RuntimeException failure;
+    private volatile boolean cancelled;
+
+    private volatile Thread producer;
+    private volatile Thread consumer;
+    private volatile boolean producerParked;
+    private volatile boolean consumerParked;
+
+    public TokenRing(int capacity) {
+
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+        kinds = new int[size];
+        starts = new int[size];
+        ends = new int[size];
+        values = new int[size];
+        mask = size - 1;
+        published = 0;
+        released = 0;
+        finished = false;
+    }
+
+    public void put(int kind, int start, int end, int value){
+
+        int index = published;
+        int spins = 0;
+
+        while (index - released >= kinds.length){
+
+            if (cancelled){
+                throw new IllegalStateException("Token ring cancelled");
+            }
+            if (++spins < SPINS){
+                Thread.yield();
+                continue;
+            }
+
+            producer = Thread.currentThread();
+            producerParked = true;
+
+            if (index - released >= kinds.length && !cancelled){
+                LockSupport.park(this);
+            }
+            producerParked = false;
+        }
+
+        int slot = index & mask;
+        kinds[slot] = kind;
+        starts[slot] = start;
+        ends[slot] = end;
+        values[slot] = value;
+        published = index + 1;
+
+        if (consumerParked){
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    public void finish(){
+        finished = true;
+        LockSupport.unpark(consumer);
+    }
+
+    public void fail(RuntimeException e){
+        failure = e;
+        finished = true;
+        LockSupport.unpark(consumer);
+    }
+
+    public void cancel(){
+        cancelled = true;
+        LockSupport.unpark(producer);
+    }
+
+    public boolean has(int index){
+
+        int spins = 0;
+
+        while (index >= published){
+
+            if (finished){
+                if (index < published) return true;
+                if (failure != null) throw failure;
+                return false;
+            }
+            if (++spins < SPINS){
+                Thread.yield();
+                continue;
+            }
+
+            consumer = Thread.currentThread();
+            consumerParked = true;
+
+            if (index >= published && !finished){
+                LockSupport.park(this);
+            }
+            consumerParked = false;
+        }
+        return true;
+    }
+
+    public void release(int index){
+        if (index > released){
+            released = index;
+
+            if (producerParked){
+                LockSupport.unpark(producer);
+            }
+        }
+    }
+
+    public int kind(int index){
+        return kinds[index & mask];
+    }
+
+    public int start(int index){
+        return starts[index & mask];
+    }
+
+    public int end(int index){
+        return ends[index & mask];
+    }
+
+    public int value(int index){
+        return values[index & mask];
+    }
+}
\ No newline at end of file
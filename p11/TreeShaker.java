@@ -0,0 +1,124 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class TreeShaker {
+
+    private ArrayList<String> roots = new ArrayList<String>();
+    private LinkedHashMap<String,ArrayList<String>> calls = new LinkedHashMap<String, ArrayList<String>>();
+    private HashMap<String,Integer> sizes = new HashMap<String, Integer>();
+    private HashSet<String> reachable = new HashSet<String>();
+    private LinkedHashMap<String,Integer> removed = new LinkedHashMap<String, Integer>();
+    private int instructions;
+
+    public TreeShaker(Collection<String> roots) {
+        this.roots.addAll(roots);
+    }
+
+    public void add(VmProgram program){
+
+        ArrayList<String> callees = null;
+        String function = null;
+
+        for (int i = 0; i < program.size(); i++){
+
+            if (program.opcode(i) == VmProgram.FUNCTION){
+                function = program.nameOf(program.name(i));
+                callees = new ArrayList<String>();
+
+                if (calls.put(function, callees) != null){
+                    throw new IllegalStateException("Duplicate function:" + function);
+                }
+                sizes.put(function, 0);
+            }
+            else if (program.opcode(i) == VmProgram.CALL && callees != null){
+                callees.add(program.nameOf(program.name(i)));
+            }
+
+            if (function != null){
+                sizes.put(function, sizes.get(function) + 1);
+            }
+        }
+        instructions += program.size();
+    }
+
+    public void shake(){
+
+        ArrayDeque<String> work = new ArrayDeque<String>();
+
+        for (String root: roots){
+
+            if (!calls.containsKey(root)){
+                throw new IllegalArgumentException("Root function not found:" + root);
+            }
+            work.add(root);
+        }
+
+        if (calls.containsKey("Sys.init")){
+            work.add("Sys.init");
+        }
+
+        while (!work.isEmpty()){
+
+            String function = work.poll();
+
+            if (!reachable.add(function)){
+                continue;
+            }
+
+            for (String callee: calls.get(function)){
+                if (calls.containsKey(callee) && !reachable.contains(callee)){
+                    work.add(callee);
+                }
+            }
+        }
+
+        for (String function: calls.keySet()){
+            if (!reachable.contains(function)){
+                removed.put(function, sizes.get(function));
+            }
+        }
+    }
+
+    public int remove(VmProgram program){
+
+        int size = 0;
+        boolean keep = true;
+
+        for (int i = 0; i < program.size(); i++){
+
+            if (program.opcode(i) == VmProgram.FUNCTION){
+                keep = reachable.contains(program.nameOf(program.name(i)));
+            }
+            if (keep){
+                program.copy(i, size++);
+            }
+        }
+
+        int count = program.size() - size;
+        program.truncate(size);
+        return count;
+    }
+
+    public String report(){
+
+        int removedInstructions = 0;
+
+        for (int size: removed.values()){
+            removedInstructions += size;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("kept ").append(calls.size() - removed.size()).append(" of ").append(calls.size()).append(" functions, removed ")
+                .append(removedInstructions).append(" of ").append(instructions).append(" instructions");
+
+        for (Map.Entry<String,Integer> function: removed.entrySet()){
+            sb.append(System.lineSeparator()).append("  ").append(function.getKey()).append(' ').append(function.getValue());
+        }
+        return sb.toString();
+    }
+}
\ No newline at end of file
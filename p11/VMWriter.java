@@ -1,93 +1,346 @@
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 
 public class VMWriter {
 
     public static enum SEGMENT {CONST,ARG,LOCAL,STATIC,THIS,THAT,POINTER,TEMP,NONE};
     public static enum COMMAND {ADD,SUB,NEG,EQ,GT,LT,AND,OR,NOT};
 
-    private static HashMap<SEGMENT,String> segmentStringHashMap = new HashMap<SEGMENT, String>();
-    private static HashMap<COMMAND,String> commandStringHashMap = new HashMap<COMMAND, String>();
-    private PrintWriter printWriter;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_PENDING = 16;
+    private static final int FLUSH_SIZE = 1 << 16;
+
+    private static final byte[] PUSH = bytes("push ");
+    private static final byte[] POP = bytes("pop ");
+    private static final byte[] LABEL = bytes("label ");
+    private static final byte[] GOTO = bytes("goto ");
+    private static final byte[] IF_GOTO = bytes("if-goto ");
+    private static final byte[] CALL = bytes("call ");
+    private static final byte[] FUNCTION = bytes("function ");
+    private static final byte[] RETURN = bytes("return\n");
+
+    public static final String[] SEGMENT_NAMES = {"constant","argument","local","static","this","that","pointer","temp","null"};
+
+    private static byte[][] segmentBytes = new byte[SEGMENT.values().length][];
+    private static byte[][] commandBytes = new byte[COMMAND.values().length][];
+
+    private File output;
+    private FileChannel channel;
+    private boolean binary;
+    private VmProgram program;
+    private Peephole peephole;
+    private DeadCode deadCode;
+    private LocalSlots localSlots;
+    private boolean held;
+    private ByteBuffer buffer;
+    private ArrayList<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+    private ArrayList<ByteBuffer> free = new ArrayList<ByteBuffer>();
 
     static {
 
-        segmentStringHashMap.put(SEGMENT.CONST,"constant");
-        segmentStringHashMap.put(SEGMENT.ARG,"argument");
-        segmentStringHashMap.put(SEGMENT.LOCAL,"local");
-        segmentStringHashMap.put(SEGMENT.STATIC,"static");
-        segmentStringHashMap.put(SEGMENT.THIS,"this");
-        segmentStringHashMap.put(SEGMENT.THAT,"that");
-        segmentStringHashMap.put(SEGMENT.POINTER,"pointer");
-        segmentStringHashMap.put(SEGMENT.TEMP,"temp");
-
-        commandStringHashMap.put(COMMAND.ADD,"add");
-        commandStringHashMap.put(COMMAND.SUB,"sub");
-        commandStringHashMap.put(COMMAND.NEG,"neg");
-        commandStringHashMap.put(COMMAND.EQ,"eq");
-        commandStringHashMap.put(COMMAND.GT,"gt");
-        commandStringHashMap.put(COMMAND.LT,"lt");
-        commandStringHashMap.put(COMMAND.AND,"and");
-        commandStringHashMap.put(COMMAND.OR,"or");
-        commandStringHashMap.put(COMMAND.NOT,"not");
+        for (SEGMENT segment: SEGMENT.values()){
+            segmentBytes[segment.ordinal()] = bytes(SEGMENT_NAMES[segment.ordinal()] + " ");
+        }
+
+        for (COMMAND command: COMMAND.values()){
+            commandBytes[command.ordinal()] = bytes(command.name().toLowerCase() + "\n");
+        }
+    }
+
+    public VMWriter() {
+        this(new VmProgram());
+    }
+
+    public VMWriter(VmProgram program) {
+        this.program = program;
     }
 
     public VMWriter(File fOut) {
+        this(fOut, new VmProgram());
+    }
 
-        try {
-            printWriter = new PrintWriter(fOut);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
+    public VMWriter(File fOut, VmProgram program) {
+
+        this(program);
+        output = fOut;
+        binary = fOut.getName().endsWith(".vmb");
+    }
+
+    private static byte[] bytes(String s){
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public VmProgram getProgram(){
+        return program;
+    }
+
+    public void setPeephole(Peephole peephole){
+        this.peephole = peephole;
+    }
+
+    public void setDeadCode(DeadCode deadCode){
+        this.deadCode = deadCode;
+    }
+
+    public void setLocalSlots(LocalSlots localSlots){
+        this.localSlots = localSlots;
+    }
 
+    public void setHeld(boolean held){
+        this.held = held;
     }
 
     public void writePush(SEGMENT segment, int index){
-        writeCommand("push",segmentStringHashMap.get(segment),String.valueOf(index));
+        program.add(VmProgram.PUSH, segment.ordinal(), index, VmProgram.NONE);
     }
 
     public void writePop(SEGMENT segment, int index){
-        writeCommand("pop",segmentStringHashMap.get(segment),String.valueOf(index));
+        program.add(VmProgram.POP, segment.ordinal(), index, VmProgram.NONE);
     }
 
     public void writeArithmetic(COMMAND command){
-        writeCommand(commandStringHashMap.get(command),"","");
+        program.add(VmProgram.arithmetic(command), VmProgram.NONE, 0, VmProgram.NONE);
     }
 
-    public void writeLabel(String label){
-        writeCommand("label",label,"");
+    public void writeLabel(int label){
+        program.add(VmProgram.LABEL, VmProgram.NONE, 0, program.label(label));
     }
 
-    public void writeGoto(String label){
-        writeCommand("goto",label,"");
+    public void writeGoto(int label){
+        program.add(VmProgram.GOTO, VmProgram.NONE, 0, program.label(label));
     }
 
-    public void writeIf(String label){
-        writeCommand("if-goto",label,"");
+    public void writeIf(int label){
+        program.add(VmProgram.IF_GOTO, VmProgram.NONE, 0, program.label(label));
     }
 
     public void writeCall(String name, int nArgs){
-        writeCommand("call",name,String.valueOf(nArgs));
+        program.add(VmProgram.CALL, VmProgram.NONE, nArgs, program.intern(name));
     }
 
     public void writeFunction(String name, int nLocals){
-        writeCommand("function",name,String.valueOf(nLocals));
+        flushFunctions();
+        program.add(VmProgram.FUNCTION, VmProgram.NONE, nLocals, program.intern(name));
     }
 
     public void writeReturn(){
-        writeCommand("return","","");
+        program.add(VmProgram.RETURN, VmProgram.NONE, 0, VmProgram.NONE);
+    }
+
+    public void writeCode(VMWriter code){
+        flushFunctions();
+        program.append(code.program);
+    }
+
+    private void flushFunctions(){
+
+        if (output != null && !binary && !held && program.size() >= FLUSH_SIZE){
+            writeText();
+            program.clear();
+        }
+    }
+
+    public void optimize(){
+
+        if (peephole != null){
+            peephole.run(program);
+        }
+
+        while (deadCode != null && deadCode.run(program) > 0 && peephole != null){
+            peephole.run(program);
+        }
+
+        if (localSlots != null){
+            localSlots.run(program);
+        }
+    }
+
+    private void writeText(){
+
+        optimize();
+        buffer = newBuffer();
+
+        for (int i = 0; i < program.size(); i++){
+
+            int opcode = program.opcode(i);
+
+            switch (opcode){
+                case VmProgram.PUSH:
+                    ensure(32);
+                    buffer.put(PUSH).put(segmentBytes[program.segment(i)]);
+                    putInt(program.operand(i));
+                    buffer.put((byte) '\n');
+                    break;
+                case VmProgram.POP:
+                    ensure(32);
+                    buffer.put(POP).put(segmentBytes[program.segment(i)]);
+                    putInt(program.operand(i));
+                    buffer.put((byte) '\n');
+                    break;
+                case VmProgram.LABEL:writeName(LABEL, program.nameOf(program.name(i)));break;
+                case VmProgram.GOTO:writeName(GOTO, program.nameOf(program.name(i)));break;
+                case VmProgram.IF_GOTO:writeName(IF_GOTO, program.nameOf(program.name(i)));break;
+                case VmProgram.CALL:writeName(CALL, program.nameOf(program.name(i)), program.operand(i));break;
+                case VmProgram.FUNCTION:writeName(FUNCTION, program.nameOf(program.name(i)), program.operand(i));break;
+                case VmProgram.RETURN:
+                    ensure(RETURN.length);
+                    buffer.put(RETURN);
+                    break;
+                default:
+                    if (!VmProgram.isArithmetic(opcode)){
+                        throw new IllegalStateException("Unknown opcode:" + opcode);
+                    }
+                    ensure(8);
+                    buffer.put(commandBytes[opcode - VmProgram.ADD]);
+            }
+        }
+
+        buffer.flip();
+        pending.add(buffer);
+        flush();
+    }
+
+    private void writeName(byte[] command, String name){
+        ensure(command.length + name.length() + 1);
+        buffer.put(command);
+        putName(name);
+        buffer.put((byte) '\n');
+    }
+
+    private void writeName(byte[] command, String name, int n){
+        ensure(command.length + name.length() + 13);
+        buffer.put(command);
+        putName(name);
+        buffer.put((byte) ' ');
+        putInt(n);
+        buffer.put((byte) '\n');
     }
 
-    public void writeCommand(String cmd, String arg1, String arg2){
+    private void putName(String name){
+        for (int i = 0; i < name.length(); i++){
+            buffer.put((byte) name.charAt(i));
+        }
+    }
+
+    private void putInt(int n){
+
+        if (n < 0){
+            buffer.put((byte) '-');
+            n = -n;
+        }
+
+        int divisor = 1;
+        while (divisor <= n / 10){
+            divisor *= 10;
+        }
 
-        printWriter.print(cmd + " " + arg1 + " " + arg2 + "\n");
+        for (; divisor > 0; divisor /= 10){
+            buffer.put((byte) ('0' + n / divisor % 10));
+        }
+    }
 
+    private void ensure(int length){
+
+        if (buffer.remaining() >= length){
+            return;
+        }
+
+        buffer.flip();
+        pending.add(buffer);
+
+        if (output != null && pending.size() >= MAX_PENDING){
+            flush();
+        }
+
+        buffer = length > BUFFER_SIZE ? ByteBuffer.allocate(length) : newBuffer();
+    }
+
+    private ByteBuffer newBuffer(){
+
+        if (free.isEmpty()){
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        return free.remove(free.size() - 1);
+    }
+
+    private void open(){
+
+        if (channel != null){
+            return;
+        }
+
+        try {
+            channel = FileChannel.open(output.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+            output = null;
+        }
+    }
+
+    private void flush(){
+
+        if (output == null || pending.isEmpty()){
+            return;
+        }
+
+        open();
+
+        if (channel == null){
+            return;
+        }
+
+        ByteBuffer[] buffers = pending.toArray(new ByteBuffer[0]);
+
+        try {
+            long remaining = 0;
+            for (ByteBuffer b: buffers) remaining += b.remaining();
+
+            while (remaining > 0){
+                remaining -= channel.write(buffers);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        for (ByteBuffer b: buffers){
+            if (b.capacity() == BUFFER_SIZE){
+                b.clear();
+                free.add(b);
+            }
+        }
+        pending.clear();
     }
 
     public void close(){
-        printWriter.close();
+
+        if (output == null){
+            return;
+        }
+
+        open();
+
+        if (binary){
+            optimize();
+            pending.add(VmBinary.encode(program));
+            flush();
+        }else {
+            writeText();
+        }
+
+        if (channel == null){
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
 
@@ -0,0 +1,264 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class VmBinary {
+
+    private static final int MAGIC = 0x564D4201;
+
+    private static final int OPCODE_SHIFT = 27;
+    private static final int SEGMENT_SHIFT = 23;
+    private static final int COUNT_SHIFT = 16;
+    private static final int OPERAND_BITS = 23;
+    private static final int NAME_BITS = 27;
+    private static final int CALL_NAME_BITS = 16;
+    private static final int COUNT_BITS = 11;
+
+    private static HashMap<String,Integer> opcodes = new HashMap<String, Integer>();
+    private static HashMap<String,Integer> segments = new HashMap<String, Integer>();
+
+    static {
+
+        opcodes.put("push", VmProgram.PUSH);
+        opcodes.put("pop", VmProgram.POP);
+        opcodes.put("label", VmProgram.LABEL);
+        opcodes.put("goto", VmProgram.GOTO);
+        opcodes.put("if-goto", VmProgram.IF_GOTO);
+        opcodes.put("call", VmProgram.CALL);
+        opcodes.put("function", VmProgram.FUNCTION);
+        opcodes.put("return", VmProgram.RETURN);
+
+        for (VMWriter.COMMAND command: VMWriter.COMMAND.values()){
+            opcodes.put(command.name().toLowerCase(), VmProgram.arithmetic(command));
+        }
+
+        for (int i = 0; i < VMWriter.SEGMENT_NAMES.length; i++){
+            segments.put(VMWriter.SEGMENT_NAMES[i], i);
+        }
+    }
+
+    public static ByteBuffer encode(VmProgram program){
+
+        int[] remap = new int[program.nameCount()];
+        Arrays.fill(remap, VmProgram.NONE);
+        ArrayList<String> names = new ArrayList<String>();
+        int size = 12 + program.size() * 4;
+
+        for (int i = 0; i < program.size(); i++){
+
+            int id = program.name(i);
+
+            if (id != VmProgram.NONE && remap[id] == VmProgram.NONE){
+                remap[id] = names.size();
+                names.add(program.nameOf(id));
+                size += 2 + program.nameOf(id).length();
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC);
+        out.putInt(names.size());
+        out.putInt(program.size());
+
+        for (String n: names){
+            byte[] name = n.getBytes(StandardCharsets.US_ASCII);
+            out.putShort((short) name.length);
+            out.put(name);
+        }
+
+        for (int i = 0; i < program.size(); i++){
+            out.putInt(encode(program, i, remap));
+        }
+
+        out.flip();
+        return out;
+    }
+
+    private static int encode(VmProgram program, int i, int[] remap){
+
+        int opcode = program.opcode(i);
+        int word = opcode << OPCODE_SHIFT;
+
+        switch (opcode){
+            case VmProgram.PUSH:
+            case VmProgram.POP:
+                int operand = program.operand(i);
+                if (operand >= 1 << (OPERAND_BITS - 1) || operand < -(1 << (OPERAND_BITS - 1))){
+                    throw new IllegalStateException("Operand out of range for .vmb:" + operand);
+                }
+                return word | program.segment(i) << SEGMENT_SHIFT | operand & ((1 << OPERAND_BITS) - 1);
+            case VmProgram.LABEL:
+            case VmProgram.GOTO:
+            case VmProgram.IF_GOTO:
+                return word | checkRange(remap[program.name(i)], NAME_BITS, "Name table too large for .vmb");
+            case VmProgram.CALL:
+            case VmProgram.FUNCTION:
+                return word | checkRange(program.operand(i), COUNT_BITS, "Count out of range for .vmb") << COUNT_SHIFT | checkRange(remap[program.name(i)], CALL_NAME_BITS, "Name table too large for .vmb");
+            default:
+                return word;
+        }
+    }
+
+    private static int checkRange(int value, int bits, String message){
+
+        if (value < 0 || value >= 1 << bits){
+            throw new IllegalStateException(message + ":" + value);
+        }
+        return value;
+    }
+
+    public static VmProgram decode(ByteBuffer in){
+
+        if (in.getInt() != MAGIC){
+            throw new IllegalArgumentException("Not a .vmb file");
+        }
+
+        int nameCount = in.getInt();
+        int size = in.getInt();
+        VmProgram program = new VmProgram(Math.max(16, size));
+
+        for (int id = 0; id < nameCount; id++){
+            byte[] name = new byte[in.getShort() & 0xFFFF];
+            in.get(name);
+            program.intern(new String(name, StandardCharsets.US_ASCII));
+        }
+
+        for (int i = 0; i < size; i++){
+
+            int word = in.getInt();
+            int opcode = word >>> OPCODE_SHIFT;
+
+            switch (opcode){
+                case VmProgram.PUSH:
+                case VmProgram.POP:
+                    program.add(opcode, word >>> SEGMENT_SHIFT & 15, word << (32 - OPERAND_BITS) >> (32 - OPERAND_BITS), VmProgram.NONE);
+                    break;
+                case VmProgram.LABEL:
+                case VmProgram.GOTO:
+                case VmProgram.IF_GOTO:
+                    program.add(opcode, VmProgram.NONE, 0, word & ((1 << NAME_BITS) - 1));
+                    break;
+                case VmProgram.CALL:
+                case VmProgram.FUNCTION:
+                    program.add(opcode, VmProgram.NONE, word >>> COUNT_SHIFT & ((1 << COUNT_BITS) - 1), word & ((1 << CALL_NAME_BITS) - 1));
+                    break;
+                default:
+                    if (!VmProgram.isArithmetic(opcode) && opcode != VmProgram.RETURN){
+                        throw new IllegalArgumentException("Unknown opcode:" + opcode);
+                    }
+                    program.add(opcode, VmProgram.NONE, 0, VmProgram.NONE);
+            }
+        }
+
+        return program;
+    }
+
+    public static VmProgram read(File inFile){
+
+        try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new VmProgram();
+    }
+
+    public static VmProgram readText(File inFile){
+
+        VmProgram program = new VmProgram();
+        ByteBuffer src;
+
+        try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            src = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return program;
+        }
+
+        byte[] bytes = new byte[src.remaining()];
+        src.get(bytes);
+        int lineNumber = 0;
+
+        for (String line: new String(bytes, StandardCharsets.US_ASCII).split("\n")){
+
+            lineNumber++;
+
+            int comment = line.indexOf("//");
+            if (comment != -1){
+                line = line.substring(0, comment);
+            }
+
+            String[] parts = line.trim().split("\\s+");
+
+            if (parts[0].length() == 0){
+                continue;
+            }
+
+            Integer opcode = opcodes.get(parts[0]);
+
+            if (opcode == null){
+                throw new IllegalArgumentException("Unknown VM command at line " + lineNumber + ":" + parts[0]);
+            }
+
+            switch (opcode){
+                case VmProgram.PUSH:
+                case VmProgram.POP:
+                    Integer segment = segments.get(parts[1]);
+                    if (segment == null){
+                        throw new IllegalArgumentException("Unknown segment at line " + lineNumber + ":" + parts[1]);
+                    }
+                    program.add(opcode, segment, Integer.parseInt(parts[2]), VmProgram.NONE);
+                    break;
+                case VmProgram.LABEL:
+                case VmProgram.GOTO:
+                case VmProgram.IF_GOTO:
+                    program.add(opcode, VmProgram.NONE, 0, program.intern(parts[1]));
+                    break;
+                case VmProgram.CALL:
+                case VmProgram.FUNCTION:
+                    program.add(opcode, VmProgram.NONE, Integer.parseInt(parts[2]), program.intern(parts[1]));
+                    break;
+                default:
+                    program.add(opcode, VmProgram.NONE, 0, VmProgram.NONE);
+            }
+        }
+
+        return program;
+    }
+
+    public static void main(String[] args) {
+
+        if (args.length != 1){
+            System.out.println("Usage:java VmBinary [file.vm|file.vmb]");
+            return;
+        }
+
+        File fInput = new File(args[0]);
+        String path = fInput.getAbsolutePath();
+        File fOutput;
+        VmProgram program;
+
+        if (path.endsWith(".vmb")){
+            program = read(fInput);
+            fOutput = new File(path.substring(0, path.length() - 4) + ".vm");
+        }
+        else if (path.endsWith(".vm")){
+            program = readText(fInput);
+            fOutput = new File(path + "b");
+        }
+        else {
+            throw new IllegalArgumentException(".vm or .vmb only");
+        }
+
+        new VMWriter(fOutput, program).close();
+        System.out.println("File created : " + fOutput.getPath());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,159 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class VmProgram {
+
+    public static final int NONE = -1;
+
+    public static final int PUSH = 0;
+    public static final int POP = 1;
+    public static final int ADD = 2;
+    public static final int SUB = 3;
+    public static final int NEG = 4;
+    public static final int EQ = 5;
+    public static final int GT = 6;
+    public static final int LT = 7;
+    public static final int AND = 8;
+    public static final int OR = 9;
+    public static final int NOT = 10;
+    public static final int LABEL = 11;
+    public static final int GOTO = 12;
+    public static final int IF_GOTO = 13;
+    public static final int CALL = 14;
+    public static final int FUNCTION = 15;
+    public static final int RETURN = 16;
+
+    private int[] opcodes;
+    private int[] segments;
+    private int[] operands;
+    private int[] names;
+    private int size;
+
+    private ArrayList<String> nameTable = new ArrayList<String>();
+    private HashMap<String,Integer> nameIds = new HashMap<String, Integer>();
+    private int[] labelIds = new int[0];
+
+    public VmProgram() {
+        this(1024);
+    }
+
+    public VmProgram(int capacity) {
+        opcodes = new int[capacity];
+        segments = new int[capacity];
+        operands = new int[capacity];
+        names = new int[capacity];
+        size = 0;
+    }
+
+    public static int arithmetic(VMWriter.COMMAND command){
+        return ADD + command.ordinal();
+    }
+
+    public static boolean isArithmetic(int opcode){
+        return opcode >= ADD && opcode <= NOT;
+    }
+
+    public int add(int opcode, int segment, int operand, int name){
+
+        if (size == opcodes.length){
+            int capacity = opcodes.length * 2;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            segments = Arrays.copyOf(segments, capacity);
+            operands = Arrays.copyOf(operands, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+
+        opcodes[size] = opcode;
+        segments[size] = segment;
+        operands[size] = operand;
+        names[size] = name;
+        return size++;
+    }
+
+    public void set(int i, int opcode, int segment, int operand, int name){
+        opcodes[i] = opcode;
+        segments[i] = segment;
+        operands[i] = operand;
+        names[i] = name;
+    }
+
+    public void copy(int from, int to){
+        set(to, opcodes[from], segments[from], operands[from], names[from]);
+    }
+
+    public void truncate(int size){
+        this.size = size;
+    }
+
+    public void append(VmProgram other){
+
+        int[] remap = new int[other.nameTable.size()];
+
+        for (int id = 0; id < remap.length; id++){
+            remap[id] = intern(other.nameTable.get(id));
+        }
+
+        for (int i = 0; i < other.size; i++){
+            add(other.opcodes[i], other.segments[i], other.operands[i], other.names[i] == NONE ? NONE : remap[other.names[i]]);
+        }
+    }
+
+    public int intern(String name){
+
+        Integer id = nameIds.get(name);
+
+        if (id == null){
+            id = nameTable.size();
+            nameTable.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    public int label(int label){
+
+        if (label >= labelIds.length){
+            int length = labelIds.length;
+            labelIds = Arrays.copyOf(labelIds, Math.max(16, label * 2));
+            Arrays.fill(labelIds, length, labelIds.length, NONE);
+        }
+
+        if (labelIds[label] == NONE){
+            labelIds[label] = intern("LABEL_" + label);
+        }
+        return labelIds[label];
+    }
+
+    public void clear(){
+        size = 0;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int opcode(int i){
+        return opcodes[i];
+    }
+
+    public int segment(int i){
+        return segments[i];
+    }
+
+    public int operand(int i){
+        return operands[i];
+    }
+
+    public int name(int i){
+        return names[i];
+    }
+
+    public String nameOf(int id){
+        return nameTable.get(id);
+    }
+
+    public int nameCount(){
+        return nameTable.size();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,364 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class VmRunner {
+
+    private static final int RAM_SIZE = 1 << 15;
+    private static final int STACK_BASE = 256;
+    private static final int STATIC_BASE = 16;
+    private static final int STATIC_SIZE = 240;
+    private static final int HEAP_BASE = 1 << 14;
+
+    private VmProgram code = new VmProgram();
+    private ArrayList<Integer> classStarts = new ArrayList<Integer>();
+    private ArrayList<Integer> staticBases = new ArrayList<Integer>();
+    private int staticCount;
+
+    private int[] targets;
+    private int[] staticOffsets;
+    private HashMap<String,Integer> functions = new HashMap<String, Integer>();
+
+    private int[] ram = new int[RAM_SIZE];
+    private int heap;
+    private StringBuilder output = new StringBuilder();
+    private long steps;
+
+    public static VmRunner load(File dir){
+
+        VmRunner runner = new VmRunner();
+        File[] files = dir.listFiles();
+
+        if (files != null){
+            Arrays.sort(files);
+
+            for (File f: files){
+
+                if (f.getName().endsWith(".vm")){
+                    runner.add(VmBinary.readText(f));
+                }
+            }
+        }
+        return runner;
+    }
+
+    public void add(VmProgram program){
+
+        int statics = 0;
+
+        for (int i = 0; i < program.size(); i++){
+
+            if (program.segment(i) == VMWriter.SEGMENT.STATIC.ordinal()){
+                statics = Math.max(statics, program.operand(i) + 1);
+            }
+        }
+
+        classStarts.add(code.size());
+        staticBases.add(staticCount);
+        staticCount += statics;
+        code.append(program);
+    }
+
+    public long getSteps(){
+        return steps;
+    }
+
+    public int size(){
+        return code.size();
+    }
+
+    public String run(long maxSteps){
+
+        link();
+
+        heap = HEAP_BASE;
+        int sp = STACK_BASE;
+        int lcl = 0;
+        int arg = 0;
+        int pointer = 0;
+        int that = 0;
+
+        ram[sp++] = -1;
+        ram[sp++] = 0;
+        ram[sp++] = 0;
+        ram[sp++] = 0;
+        ram[sp++] = 0;
+        arg = STACK_BASE;
+        lcl = sp;
+        int pc = function("Main.main");
+
+        while (true){
+
+            if (++steps > maxSteps){
+                throw new IllegalStateException("Step limit exceeded");
+            }
+            if (sp >= HEAP_BASE){
+                throw new IllegalStateException("Stack overflow at " + pc);
+            }
+
+            int operand = code.operand(pc);
+
+            switch (code.opcode(pc)){
+                case VmProgram.PUSH:
+                    switch (code.segment(pc)){
+                        case 0:ram[sp] = operand;break;
+                        case 1:ram[sp] = ram[arg + operand];break;
+                        case 2:ram[sp] = ram[lcl + operand];break;
+                        case 3:ram[sp] = ram[staticOffsets[pc] + operand];break;
+                        case 4:ram[sp] = ram[pointer + operand];break;
+                        case 5:ram[sp] = ram[that + operand];break;
+                        case 6:ram[sp] = operand == 0 ? pointer : that;break;
+                        case 7:ram[sp] = ram[5 + operand];break;
+                    }
+                    sp++;
+                    pc++;
+                    break;
+                case VmProgram.POP:
+                    int value = ram[--sp];
+                    switch (code.segment(pc)){
+                        case 1:ram[arg + operand] = value;break;
+                        case 2:ram[lcl + operand] = value;break;
+                        case 3:ram[staticOffsets[pc] + operand] = value;break;
+                        case 4:ram[pointer + operand] = value;break;
+                        case 5:ram[that + operand] = value;break;
+                        case 6:
+                            if (operand == 0){
+                                pointer = value;
+                            }else {
+                                that = value;
+                            }
+                            break;
+                        case 7:ram[5 + operand] = value;break;
+                        default:throw new IllegalStateException("Bad pop at " + pc);
+                    }
+                    pc++;
+                    break;
+                case VmProgram.NEG:
+                    ram[sp - 1] = (short) -ram[sp - 1];
+                    pc++;
+                    break;
+                case VmProgram.NOT:
+                    ram[sp - 1] = (short) ~ram[sp - 1];
+                    pc++;
+                    break;
+                case VmProgram.ADD:
+                case VmProgram.SUB:
+                case VmProgram.EQ:
+                case VmProgram.GT:
+                case VmProgram.LT:
+                case VmProgram.AND:
+                case VmProgram.OR:
+                    sp--;
+                    ram[sp - 1] = arithmetic(code.opcode(pc), ram[sp - 1], ram[sp]);
+                    pc++;
+                    break;
+                case VmProgram.LABEL:
+                    pc++;
+                    break;
+                case VmProgram.GOTO:
+                    pc = targets[pc];
+                    break;
+                case VmProgram.IF_GOTO:
+                    pc = ram[--sp] != 0 ? targets[pc] : pc + 1;
+                    break;
+                case VmProgram.FUNCTION:
+                    for (int i = 0; i < operand; i++){
+                        ram[sp++] = 0;
+                    }
+                    pc++;
+                    break;
+                case VmProgram.CALL:
+                    int callee = targets[pc];
+
+                    if (callee == VmProgram.NONE){
+                        int result = call(code.nameOf(code.name(pc)), sp - operand, operand);
+                        sp -= operand;
+                        ram[sp++] = (short) result;
+                        pc++;
+                        break;
+                    }
+
+                    ram[sp++] = pc + 1;
+                    ram[sp++] = lcl;
+                    ram[sp++] = arg;
+                    ram[sp++] = pointer;
+                    ram[sp++] = that;
+                    arg = sp - operand - 5;
+                    lcl = sp;
+                    pc = callee;
+                    break;
+                case VmProgram.RETURN:
+                    int frame = lcl;
+                    int returnPc = ram[frame - 5];
+                    ram[arg] = ram[sp - 1];
+                    sp = arg + 1;
+                    that = ram[frame - 1];
+                    pointer = ram[frame - 2];
+                    arg = ram[frame - 3];
+                    lcl = ram[frame - 4];
+
+                    if (returnPc == -1){
+                        return output.toString();
+                    }
+                    pc = returnPc;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown VM command at " + pc);
+            }
+        }
+    }
+
+    private static int arithmetic(int opcode, int a, int b){
+
+        switch (opcode){
+            case VmProgram.ADD:return (short) (a + b);
+            case VmProgram.SUB:return (short) (a - b);
+            case VmProgram.EQ:return a == b ? -1 : 0;
+            case VmProgram.GT:return a > b ? -1 : 0;
+            case VmProgram.LT:return a < b ? -1 : 0;
+            case VmProgram.AND:return a & b;
+            default:return a | b;
+        }
+    }
+
+    private int call(String name, int args, int nArgs){
+
+        switch (name){
+            case "Math.multiply":
+                return ram[args] * ram[args + 1];
+            case "Math.divide":
+                if (ram[args + 1] == 0){
+                    throw new IllegalStateException("Division by zero");
+                }
+                return ram[args] / ram[args + 1];
+            case "Math.abs":
+                return Math.abs(ram[args]);
+            case "Memory.alloc":
+            case "Array.new":
+                return alloc(ram[args]);
+            case "String.new":
+                int str = alloc(ram[args] + 2);
+                ram[str] = 0;
+                ram[str + 1] = ram[args];
+                return str;
+            case "String.appendChar":
+                str = ram[args];
+                if (ram[str] == ram[str + 1]){
+                    throw new IllegalStateException("String full");
+                }
+                ram[str + 2 + ram[str]++] = ram[args + 1];
+                return str;
+            case "String.length":
+                return ram[ram[args]];
+            case "String.charAt":
+                return ram[ram[args] + 2 + ram[args + 1]];
+            case "Output.printInt":
+                output.append(ram[args]);
+                return 0;
+            case "Output.printChar":
+                output.append((char) ram[args]);
+                return 0;
+            case "Output.printString":
+                str = ram[args];
+                for (int i = 0; i < ram[str]; i++){
+                    output.append((char) ram[str + 2 + i]);
+                }
+                return 0;
+            case "Output.println":
+                output.append('\n');
+                return 0;
+            case "Memory.deAlloc":
+            case "Array.dispose":
+            case "String.dispose":
+                return 0;
+            default:
+                throw new IllegalStateException("Unknown function:" + name + " " + nArgs);
+        }
+    }
+
+    private int alloc(int size){
+
+        int base = heap;
+        heap += Math.max(size, 1);
+
+        if (heap >= RAM_SIZE){
+            throw new IllegalStateException("Heap overflow");
+        }
+        return base;
+    }
+
+    private int function(String name){
+
+        Integer pc = functions.get(name);
+
+        if (pc == null){
+            throw new IllegalStateException("Missing function:" + name);
+        }
+        return pc;
+    }
+
+    private void link(){
+
+        if (staticCount > STATIC_SIZE){
+            throw new IllegalStateException("Static segment overflow:" + staticCount);
+        }
+
+        targets = new int[code.size()];
+        staticOffsets = new int[code.size()];
+        HashMap<Integer,Integer> labels = new HashMap<Integer, Integer>();
+
+        for (int i = 0; i < code.size(); i++){
+
+            if (code.opcode(i) == VmProgram.FUNCTION){
+                functions.put(code.nameOf(code.name(i)), i);
+            }
+        }
+
+        int klass = 0;
+        int start = 0;
+
+        while (start < code.size()){
+
+            int end = start + 1;
+
+            while (end < code.size() && code.opcode(end) != VmProgram.FUNCTION){
+                end++;
+            }
+
+            while (klass + 1 < classStarts.size() && classStarts.get(klass + 1) <= start){
+                klass++;
+            }
+
+            labels.clear();
+
+            for (int i = start; i < end; i++){
+
+                if (code.opcode(i) == VmProgram.LABEL){
+                    labels.put(code.name(i), i);
+                }
+            }
+
+            for (int i = start; i < end; i++){
+
+                staticOffsets[i] = STATIC_BASE + staticBases.get(klass);
+
+                switch (code.opcode(i)){
+                    case VmProgram.GOTO:
+                    case VmProgram.IF_GOTO:
+                        Integer target = labels.get(code.name(i));
+                        if (target == null){
+                            throw new IllegalStateException("Missing label:" + code.nameOf(code.name(i)));
+                        }
+                        targets[i] = target;
+                        break;
+                    case VmProgram.CALL:
+                        Integer callee = functions.get(code.nameOf(code.name(i)));
+                        targets[i] = callee == null ? VmProgram.NONE : callee;
+                        break;
+                }
+            }
+            start = end;
+        }
+    }
+}
\ No newline at end of file